@@ -0,0 +1,88 @@
+package com.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the home page over a folder of empty files, either from scratch after an invalidation or from the
+ * pre-rendered page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryIndexBenchmark {
+
+    private static final String TEMPLATE = "<!DOCTYPE html>\n<html>\n<body>\n<form method=\"post\" "
+            + "enctype=\"multipart/form-data\"><input type=\"file\" name=\"file\" multiple></form>\n</body>\n</html>\n";
+
+    @Param({"10", "1000", "100000"})
+    public int files;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private Path folder;
+    private Path template;
+    private DirectoryIndex index;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("index-benchmark");
+        for (int i = 0; i < files; i++) {
+            Files.createFile(folder.resolve("file number " + i + ".txt"));
+        }
+        template = Files.createTempFile("index-benchmark", ".html");
+        Files.write(template, TEMPLATE.getBytes(StandardCharsets.UTF_8));
+        index = new DirectoryIndex(folder, template, 1000, compression);
+        HttpRequestParser parser = new HttpRequestParser(parsed -> null);
+        parser.parse(ByteBuffer.wrap(("GET /?sort=modified&order=desc HTTP/1.1\r\nHost: localhost\r\n"
+                + "Accept-Encoding: gzip\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+        request = parser.getRequest();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.close();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(folder);
+        Files.delete(template);
+    }
+
+    @Benchmark
+    public HttpResponse render() throws IOException {
+        index.invalidate();
+        return index.render(request);
+    }
+
+    @Benchmark
+    public HttpResponse renderCached() throws IOException {
+        return index.render(request);
+    }
+}
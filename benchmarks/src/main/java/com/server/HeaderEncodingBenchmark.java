@@ -0,0 +1,100 @@
+package com.server;
+
+import com.util.HttpHeaders;
+import com.util.MimeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the headers of a typical file response and writes them with an empty body to a discarding channel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderEncodingBenchmark {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(HttpResponse.HEADER_BUFFER_SIZE);
+    private final DiscardChannel channel = new DiscardChannel();
+
+    @Benchmark
+    public byte[] headerBytes() {
+        return createResponse().getHeaderBytes();
+    }
+
+    @Benchmark
+    public long writeWithConnectionBuffer() throws IOException {
+        createResponse().writeTo(channel, headerBuffer);
+        return channel.written;
+    }
+
+    @Benchmark
+    public long writeNotFound() throws IOException {
+        HttpResponse response = HttpResponse.create(404, EMPTY, MimeType.text);
+        response.setKeepAlive(false, 0);
+        response.writeTo(channel, headerBuffer);
+        return channel.written;
+    }
+
+    private static HttpResponse createResponse() {
+        HttpResponse response = HttpResponse.create(200, EMPTY, MimeType.html);
+        response.addHeader(HttpHeaders.ETAG, "\"3f2a-18c2f3a1b20\"");
+        response.addHeader(HttpHeaders.LAST_MODIFIED, "Sat, 17 Oct 2026 11:42:49 GMT");
+        response.addHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        response.setKeepAlive(true, 15);
+        return response;
+    }
+
+    private static class DiscardChannel implements GatheringByteChannel {
+
+        private long written;
+
+        @Override
+        public int write(ByteBuffer source) {
+            int remaining = source.remaining();
+            source.position(source.limit());
+            written += remaining;
+            return remaining;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(sources[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package com.server;
+
+import com.MainServer;
+import org.HdrHistogram.Histogram;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * End-to-end load test over loopback. Starts {@link MyServer} on a free port for every server mode, drives it
+ * with closed-loop keep-alive connections issuing a weighted mix of requests and reports throughput and latency
+ * percentiles per request kind, recorded in HdrHistograms.
+ * <p>
+ * Run it from the repository root, where the home page template lives:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.server.LoadGenerator --modes blocking,virtual,nio
+ * </pre>
+ * The tls mode serves HTTPS from the NIO event loops with a generated self-signed certificate, to compare with
+ * plaintext nio. The reuseport mode gives every event loop an acceptor of its own on a channel bound with
+ * SO_REUSEPORT; with {@code --newConnections true} and a {@code --cores} sweep it shows how accepting scales.
+ */
+public class LoadGenerator {
+
+    enum Kind {
+        HOME, SMALL, LARGE, UPLOAD
+    }
+
+    private static final String BOUNDARY = "----LoadGeneratorBoundary";
+    private static final int SMALL_FILES = 100;
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Map<String, String> options;
+    private final Map<Kind, Integer> mix = new EnumMap<>(Kind.class);
+    private final int connections;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int smallSize;
+    private final int largeSize;
+    private final int uploadSize;
+    private final Path histograms;
+    private final boolean newConnections;
+    private final String[] cores;
+    private Path folder;
+    private byte[] uploadBody;
+    private Path keyStore;
+    private SSLContext clientTls;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "32"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "10"));
+        this.smallSize = parseSize(options.getOrDefault("smallSize", "4k"));
+        this.largeSize = parseSize(options.getOrDefault("largeSize", "16m"));
+        this.uploadSize = parseSize(options.getOrDefault("uploadSize", "64k"));
+        this.histograms = options.containsKey("histograms") ? Paths.get(options.get("histograms")) : null;
+        this.newConnections = Boolean.parseBoolean(options.getOrDefault("newConnections", "false"));
+        this.cores = options.containsKey("cores") ? options.get("cores").split(",") : new String[]{null};
+        for (String weight : options.getOrDefault("mix", "home=1,small=6,large=1,upload=2").split(",")) {
+            String[] pair = weight.split("=");
+            mix.put(Kind.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option instead of " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (!Files.exists(Paths.get("Hello.html"))) {
+            throw new IllegalStateException("Run the load generator from the directory containing Hello.html");
+        }
+        Logger.getLogger(MainServer.class.getName()).setLevel(Level.WARNING);
+        new LoadGenerator(options).run(options.getOrDefault("modes", "blocking,nio").split(","));
+    }
+
+    void run(String[] modes) throws Exception {
+        folder = Files.createTempDirectory("load-generator");
+        try {
+            createFiles();
+            List<String> summary = new ArrayList<>();
+            for (String mode : modes) {
+                for (String count : cores) {
+                    Result result = runMode(mode.trim(), count == null ? 0 : Integer.parseInt(count.trim()));
+                    result.print(System.out);
+                    summary.add(result.summaryLine());
+                    if (histograms != null) {
+                        result.writeHistograms(histograms);
+                    }
+                }
+            }
+            System.out.println();
+            System.out.printf("%-14s %12s %10s %10s %10s %10s%n", "mode", "requests/s", "p50 ms", "p99 ms",
+                    "p999 ms", "errors");
+            summary.forEach(System.out::println);
+        } finally {
+            deleteFolder();
+        }
+    }
+
+    /**
+     * @param cores event loops of the nio modes, 0 for the configured count
+     */
+    private Result runMode(String mode, int cores) throws Exception {
+        int port = findFreePort();
+        ServerSettings settings = createSettings(mode, cores);
+        String label = cores > 0 ? mode + "/" + cores : mode;
+        MyServer server = new MyServer(new String[]{folder.toString(), String.valueOf(port)}, settings);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+        }, "load-generator-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        awaitListening(port);
+        try {
+            SSLContext tls = settings.getTlsKeyStore() != null ? clientTls : null;
+            drive(port, tls, TimeUnit.SECONDS.toNanos(warmupSeconds), new Result(label));
+            Result result = new Result(label);
+            long start = System.nanoTime();
+            drive(port, tls, TimeUnit.SECONDS.toNanos(durationSeconds), result);
+            result.elapsedNanos = System.nanoTime() - start;
+            return result;
+        } finally {
+            server.stop();
+            serverThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private ServerSettings createSettings(String mode, int cores) throws Exception {
+        ServerSettings settings = ServerSettings.fromSystemProperties()
+                .withPlatformThreads(Integer.parseInt(options.getOrDefault("threads", String.valueOf(connections))));
+        if (cores > 0) {
+            settings.withEventLoops(cores);
+        }
+        switch (mode) {
+            case "blocking":
+                return settings.withMode(ServerMode.BLOCKING).withExecutorMode(ExecutorMode.PLATFORM);
+            case "virtual":
+                return settings.withMode(ServerMode.BLOCKING).withExecutorMode(ExecutorMode.VIRTUAL);
+            case "nio":
+                return settings.withMode(ServerMode.NIO);
+            case "reuseport":
+                return settings.withMode(ServerMode.NIO).withAcceptors(settings.getEventLoops());
+            case "tls":
+                if (keyStore == null) {
+                    keyStore = SelfSignedKeyStore.create(folder, options.getOrDefault("keyAlgorithm", "EC"));
+                    clientTls = SelfSignedKeyStore.createTrustingClientContext();
+                }
+                return settings.withMode(ServerMode.NIO)
+                        .withTlsKeyStore(keyStore.toString())
+                        .withTlsKeyStorePassword(SelfSignedKeyStore.PASSWORD);
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+    }
+
+    private void drive(int port, SSLContext tls, long durationNanos, Result result) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(connections);
+        try {
+            long deadline = System.nanoTime() + durationNanos;
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                futures.add(clients.submit(() -> new Client(port, tls).run(deadline, new Result(result.mode))));
+            }
+            for (Future<Result> future : futures) {
+                result.add(future.get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private void createFiles() throws IOException {
+        Random random = new Random(42);
+        byte[] small = new byte[smallSize];
+        for (int i = 0; i < SMALL_FILES; i++) {
+            random.nextBytes(small);
+            Files.write(folder.resolve("small-" + i + ".bin"), small);
+        }
+        byte[] chunk = new byte[1 << 20];
+        random.nextBytes(chunk);
+        try (OutputStream outputStream = Files.newOutputStream(folder.resolve("large.bin"))) {
+            for (int written = 0; written < largeSize; written += chunk.length) {
+                outputStream.write(chunk, 0, Math.min(chunk.length, largeSize - written));
+            }
+        }
+        byte[] upload = new byte[uploadSize];
+        random.nextBytes(upload);
+        byte[] head = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"upload.bin\""
+                + "\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        uploadBody = new byte[head.length + upload.length + tail.length];
+        System.arraycopy(head, 0, uploadBody, 0, head.length);
+        System.arraycopy(upload, 0, uploadBody, head.length, upload.length);
+        System.arraycopy(tail, 0, uploadBody, head.length + upload.length, tail.length);
+    }
+
+    private void deleteFolder() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(folder);
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitListening(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port));
+                return;
+            } catch (IOException exception) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static int parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        char unit = value.charAt(value.length() - 1);
+        int multiplier = unit == 'k' ? 1 << 10 : unit == 'm' ? 1 << 20 : 1;
+        return Integer.parseInt(multiplier == 1 ? value : value.substring(0, value.length() - 1)) * multiplier;
+    }
+
+    /**
+     * One keep-alive connection sending a request as soon as the previous response has been read, or a new
+     * connection for every request with {@code --newConnections true}.
+     */
+    private class Client {
+
+        private final int port;
+        private final SSLContext tls;
+        private final int totalWeight;
+        private final byte[] discard = new byte[65536];
+        private Socket socket;
+        private InputStream inputStream;
+        private OutputStream outputStream;
+
+        Client(int port, SSLContext tls) {
+            this.port = port;
+            this.tls = tls;
+            this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        Result run(long deadline, Result result) throws IOException {
+            try {
+                while (System.nanoTime() < deadline) {
+                    Kind kind = nextKind();
+                    long start = System.nanoTime();
+                    try {
+                        if (!send(kind)) {
+                            result.errors++;
+                        }
+                    } catch (IOException exception) {
+                        result.errors++;
+                        disconnect();
+                        continue;
+                    }
+                    result.record(kind, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                }
+            } finally {
+                disconnect();
+            }
+            return result;
+        }
+
+        private Kind nextKind() {
+            int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (Map.Entry<Kind, Integer> weight : mix.entrySet()) {
+                pick -= weight.getValue();
+                if (pick < 0) {
+                    return weight.getKey();
+                }
+            }
+            throw new IllegalStateException();
+        }
+
+        /**
+         * @return true if the server answered with a success status
+         */
+        private boolean send(Kind kind) throws IOException {
+            if (socket == null) {
+                socket = new Socket("localhost", port);
+                socket.setTcpNoDelay(true);
+                if (tls != null) {
+                    // Clients share the context, so reconnections resume their session
+                    socket = tls.getSocketFactory().createSocket(socket, "localhost", port, true);
+                    ((SSLSocket) socket).startHandshake();
+                }
+                inputStream = new BufferedInputStream(socket.getInputStream(), 65536);
+                outputStream = socket.getOutputStream();
+            }
+            String head;
+            byte[] body = null;
+            switch (kind) {
+                case HOME:
+                    head = "GET / HTTP/1.1\r\n";
+                    break;
+                case SMALL:
+                    head = "GET " + folder.resolve("small-" + ThreadLocalRandom.current().nextInt(SMALL_FILES)
+                            + ".bin") + " HTTP/1.1\r\n";
+                    break;
+                case LARGE:
+                    head = "GET " + folder.resolve("large.bin") + " HTTP/1.1\r\n";
+                    break;
+                default:
+                    head = "POST / HTTP/1.1\r\nContent-Type: multipart/form-data; boundary=" + BOUNDARY
+                            + "\r\nContent-Length: " + uploadBody.length + "\r\n";
+                    body = uploadBody;
+            }
+            if (newConnections) {
+                head += "Connection: close\r\n";
+            }
+            outputStream.write((head + "Host: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            if (body != null) {
+                outputStream.write(body);
+            }
+            outputStream.flush();
+            return readResponse();
+        }
+
+        private boolean readResponse() throws IOException {
+            String statusLine = readLine();
+            long contentLength = 0;
+            boolean close = false;
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+            while (contentLength > 0) {
+                int read = inputStream.read(discard, 0, (int) Math.min(discard.length, contentLength));
+                if (read == -1) {
+                    throw new IOException("Connection closed in the middle of a response");
+                }
+                contentLength -= read;
+            }
+            if (close) {
+                disconnect();
+            }
+            return statusLine.startsWith("HTTP/1.1 2");
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int b = inputStream.read(); b != '\n'; b = inputStream.read()) {
+                if (b == -1) {
+                    throw new IOException("Connection closed by the server");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        private void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException exception) {
+                    // Nothing to do, the connection is gone anyway
+                }
+                socket = null;
+            }
+        }
+    }
+
+    private static class Result {
+
+        private final String mode;
+        private final Map<Kind, Histogram> latencies = new EnumMap<>(Kind.class);
+        private final Histogram total = new Histogram(HIGHEST_MICROS, 3);
+        private long errors;
+        private long elapsedNanos;
+
+        Result(String mode) {
+            this.mode = mode;
+            for (Kind kind : Kind.values()) {
+                latencies.put(kind, new Histogram(HIGHEST_MICROS, 3));
+            }
+        }
+
+        void record(Kind kind, long micros) {
+            long value = Math.min(micros, HIGHEST_MICROS);
+            latencies.get(kind).recordValue(value);
+            total.recordValue(value);
+        }
+
+        void add(Result other) {
+            for (Kind kind : Kind.values()) {
+                latencies.get(kind).add(other.latencies.get(kind));
+            }
+            total.add(other.total);
+            errors += other.errors;
+        }
+
+        double throughput() {
+            return total.getTotalCount() / (elapsedNanos / 1e9);
+        }
+
+        void print(PrintStream out) {
+            out.printf("%n%s: %d requests in %.1f s, %.0f requests/s, %d errors%n", mode, total.getTotalCount(),
+                    elapsedNanos / 1e9, throughput(), errors);
+            out.printf("  %-8s %10s %10s %10s %10s %10s%n", "kind", "count", "p50 ms", "p99 ms", "p999 ms", "max ms");
+            for (Kind kind : Kind.values()) {
+                Histogram histogram = latencies.get(kind);
+                if (histogram.getTotalCount() > 0) {
+                    out.printf("  %-8s %10d %10.2f %10.2f %10.2f %10.2f%n", kind.name().toLowerCase(),
+                            histogram.getTotalCount(), millis(histogram, 50), millis(histogram, 99),
+                            millis(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+                }
+            }
+        }
+
+        String summaryLine() {
+            return String.format("%-14s %12.0f %10.2f %10.2f %10.2f %10d", mode, throughput(), millis(total, 50),
+                    millis(total, 99), millis(total, 99.9), errors);
+        }
+
+        /**
+         * Writes the percentile distribution of every request kind in the .hgrm format, in milliseconds.
+         */
+        void writeHistograms(Path directory) throws IOException {
+            Files.createDirectories(directory);
+            for (Map.Entry<Kind, Histogram> latency : latencies.entrySet()) {
+                if (latency.getValue().getTotalCount() == 0) {
+                    continue;
+                }
+                Path file = directory.resolve(mode + "-" + latency.getKey().name().toLowerCase() + ".hgrm");
+                try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+                    latency.getValue().outputPercentileDistribution(out, 1000.0);
+                }
+            }
+        }
+
+        private static double millis(Histogram histogram, double percentile) {
+            return histogram.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.server;
+
+import com.util.HttpHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a multipart/form-data body to the decoder in socket sized chunks. A form field part measures the
+ * boundary scan alone, a file part adds writing the file to disk, on the decoding thread or handed to a
+ * {@link FileIo} pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartBenchmark {
+
+    private static final String BOUNDARY = "----WebKitFormBoundary7MA4YWxkTrZu0gW";
+
+    @Param({"65536", "4194304"})
+    public int bodySize;
+
+    @Param({"field", "file"})
+    public String part;
+
+    @Param({"0", "4"})
+    public int ioThreads;
+
+    private final BufferPool buffers = new BufferPool(64 << 20, false);
+    private Path folder;
+    private FileIo fileIo;
+    private HttpRequest request;
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("multipart-benchmark");
+        fileIo = ioThreads > 0 ? new FileIo(ioThreads, buffers) : null;
+        request = new HttpRequest(HttpRequest.POST, "/", HttpRequest.HTTP_1_1);
+        request.addHeader(HttpHeaders.CONTENT_TYPE, "multipart/form-data; boundary=" + BOUNDARY);
+        byte[] content = new byte[bodySize];
+        new Random(42).nextBytes(content);
+        String disposition = part.equals("file") ? "name=\"file\"; filename=\"upload.bin\"" : "name=\"field\"";
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(bodySize + 256);
+        encoded.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; " + disposition
+                + "\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        encoded.write(content);
+        encoded.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        body = encoded.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (fileIo != null) {
+            fileIo.close();
+        }
+        Files.deleteIfExists(folder.resolve("upload.bin"));
+        Files.delete(folder);
+    }
+
+    @Benchmark
+    public MultipartDecoder decode() throws IOException {
+        MultipartDecoder decoder = MultipartDecoder.create(request, folder, fileIo, buffers);
+        for (int offset = 0; offset < body.length; offset += MyServer.READ_BUFFER_SIZE) {
+            decoder.write(ByteBuffer.wrap(body, offset, Math.min(MyServer.READ_BUFFER_SIZE, body.length - offset)));
+        }
+        decoder.complete();
+        return decoder;
+    }
+}
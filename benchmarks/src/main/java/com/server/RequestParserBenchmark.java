@@ -0,0 +1,64 @@
+package com.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParserBenchmark {
+
+    private static final String MINIMAL = "GET /tmp/share/a.txt HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    private static final String BROWSER = "GET /tmp/share/a.txt?sort=name HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Cache-Control: max-age=0\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: en-US,en;q=0.9\r\n"
+            + "If-None-Match: \"c-18c2f3a1b20\"\r\n"
+            + "\r\n";
+    private static final String POST = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: 27\r\n"
+            + "Content-Type: application/x-www-form-urlencoded\r\n\r\nname=value&other=more+value";
+
+    @Param({"minimal", "browser", "post"})
+    public String request;
+
+    private ByteBuffer encoded;
+    private HttpRequestParser parser;
+
+    @Setup
+    public void setUp() {
+        String text = request.equals("minimal") ? MINIMAL : request.equals("browser") ? BROWSER : POST;
+        encoded = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        parser = new HttpRequestParser(parsed -> null);
+    }
+
+    @Benchmark
+    public HttpRequest parse() throws IOException {
+        ByteBuffer buffer = encoded.duplicate();
+        parser.parse(buffer);
+        HttpRequest parsed = parser.getRequest();
+        parser.reset();
+        return parsed;
+    }
+}
@@ -0,0 +1,64 @@
+package com.server;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Throwaway certificates for benchmarking TLS, generated with the JDK's keytool so no key material is checked in.
+ */
+final class SelfSignedKeyStore {
+
+    static final String PASSWORD = "benchmark";
+
+    private SelfSignedKeyStore() {
+    }
+
+    /**
+     * Creates a PKCS12 key store holding a self-signed certificate for localhost.
+     *
+     * @param keyAlgorithm EC or RSA, with keytool's default key size of 256 and 2048 bits
+     */
+    static Path create(Path folder, String keyAlgorithm) throws IOException, InterruptedException {
+        Path keyStore = folder.resolve("server-" + keyAlgorithm.toLowerCase() + ".p12");
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", keyAlgorithm,
+                "-dname", "CN=localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(), "-storepass", PASSWORD,
+                "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed with exit code " + process.exitValue());
+        }
+        return keyStore;
+    }
+
+    /**
+     * @return a client context trusting any certificate, sessions are cached in it for resumption
+     */
+    static SSLContext createTrustingClientContext() throws GeneralSecurityException {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return context;
+    }
+}
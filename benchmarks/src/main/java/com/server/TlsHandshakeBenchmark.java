@@ -0,0 +1,125 @@
+package com.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handshakes per second between an in-memory client engine and the server's {@link TlsContext}, leaving the
+ * network out. A full handshake presents a new peer to the client session cache every time, a resumed one
+ * reconnects to the same peer and reuses the cached session. A resumed TLS 1.2 handshake skips the key exchange,
+ * the JDK resumes TLS 1.3 sessions with a fresh ECDHE exchange and only saves the certificate signature.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsHandshakeBenchmark {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Param({"TLSv1.3", "TLSv1.2"})
+    public String protocol;
+
+    @Param({"EC", "RSA"})
+    public String keyAlgorithm;
+
+    @Param({"false", "true"})
+    public boolean resumed;
+
+    private Path folder;
+    private TlsContext server;
+    private SSLContext client;
+    private int peerPort;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("tls-benchmark");
+        Path keyStore = SelfSignedKeyStore.create(folder, keyAlgorithm);
+        server = TlsContext.create(new ServerSettings()
+                .withTlsKeyStore(keyStore.toString())
+                .withTlsKeyStorePassword(SelfSignedKeyStore.PASSWORD)
+                .withTlsProtocols(protocol));
+        client = SelfSignedKeyStore.createTrustingClientContext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.delete(folder.resolve("server-" + keyAlgorithm.toLowerCase() + ".p12"));
+        Files.delete(folder);
+    }
+
+    @Benchmark
+    public SSLSession handshake() throws SSLException {
+        SSLEngine clientEngine = client.createSSLEngine("localhost", resumed ? 443 : ++peerPort);
+        clientEngine.setUseClientMode(true);
+        clientEngine.setEnabledProtocols(new String[]{protocol});
+        SSLEngine serverEngine = server.createEngine();
+        ByteBuffer toServer = ByteBuffer.allocate(clientEngine.getSession().getPacketBufferSize());
+        ByteBuffer toClient = ByteBuffer.allocate(serverEngine.getSession().getPacketBufferSize());
+        ByteBuffer application = ByteBuffer.allocate(clientEngine.getSession().getApplicationBufferSize());
+        clientEngine.beginHandshake();
+        serverEngine.beginHandshake();
+        // Runs until both sides are done and every record, including TLS 1.3 session tickets, has been read
+        boolean progress = true;
+        while (progress) {
+            progress = step(clientEngine, toClient, toServer, application)
+                    | step(serverEngine, toServer, toClient, application);
+        }
+        return clientEngine.getSession();
+    }
+
+    /**
+     * Moves one engine forward, with both network buffers in write mode.
+     *
+     * @return true if the engine consumed or produced anything
+     */
+    private static boolean step(SSLEngine engine, ByteBuffer in, ByteBuffer out, ByteBuffer application)
+            throws SSLException {
+        switch (engine.getHandshakeStatus()) {
+            case NEED_TASK:
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                return true;
+            case NEED_WRAP:
+                SSLEngineResult wrapped = engine.wrap(EMPTY, out);
+                return wrapped.bytesProduced() > 0
+                        || wrapped.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP;
+            default:
+                if (in.position() == 0) {
+                    return false;
+                }
+                in.flip();
+                try {
+                    application.clear();
+                    return engine.unwrap(in, application).bytesConsumed() > 0;
+                } finally {
+                    in.compact();
+                }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeTypeBenchmark {
+
+    @Param({"html", "JPG", "js", "zmt", "unknown"})
+    public String extension;
+
+    private String fileName;
+
+    @Setup
+    public void setUp() {
+        fileName = "/tmp/share/report." + extension;
+    }
+
+    @Benchmark
+    public MimeType getByExtension() {
+        return MimeType.getByExtension(extension);
+    }
+
+    @Benchmark
+    public MimeType getByFileName() {
+        return MimeType.getByFileName(fileName);
+    }
+}
@@ -7,6 +7,17 @@ import java.io.IOException;
 public class MainServer {
     public static void main(String[] args) throws IOException {
         MyServer myServer = new MyServer(args);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                myServer.stop();
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+            // Logging shuts down concurrently with this hook, so the report may not make it to the log
+            if (myServer.getStopReport() != null) {
+                System.err.println(myServer.getStopReport());
+            }
+        }, "shutdown"));
         myServer.run();
     }
 }
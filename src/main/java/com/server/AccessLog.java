@@ -0,0 +1,315 @@
+package com.server;
+
+import com.util.HttpHeaders;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.server.MyServer.log;
+
+/**
+ * Access log in the Common or Combined Log Format, written off the request path. Request threads only claim a
+ * slot of a bounded lock-free ring buffer and fill in a few references; a background thread formats the entries,
+ * writes them in batches and rotates the file by size and age. When the buffer is full, entries are dropped and
+ * counted or the request thread waits, depending on the {@link AccessLogPolicy}. Once the file cannot be written,
+ * entries are dropped whatever the policy.
+ */
+class AccessLog implements Closeable {
+
+    private static final int WRITE_BUFFER_SIZE = 65536;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter
+            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter ROTATED_SUFFIX = DateTimeFormatter
+            .ofPattern("yyyyMMdd-HHmmss", Locale.US).withZone(ZoneId.systemDefault());
+
+    private final Path path;
+    private final AccessLogFormat format;
+    private final AccessLogPolicy policy;
+    private final long maxBytes;
+    private final long rotateInterval;
+    private final Entry[] entries;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder(256);
+    private volatile boolean closed;
+    private long head;
+    private FileChannel channel;
+    private long fileSize;
+    private long openedAt;
+    private long formattedSecond = -1;
+    private String formattedTime;
+
+    /**
+     * @param bufferSize entries that may wait for the writer, rounded up to a power of two
+     * @param maxBytes file size that triggers a rotation, 0 for none
+     * @param rotateInterval milliseconds after which the file is rotated, 0 for none
+     */
+    AccessLog(Path path, AccessLogFormat format, AccessLogPolicy policy, int bufferSize, long maxBytes,
+              long rotateInterval) throws IOException {
+        this.path = path;
+        this.format = format;
+        this.policy = policy;
+        this.maxBytes = maxBytes;
+        this.rotateInterval = rotateInterval;
+        int capacity = Integer.highestOneBit(Math.max(bufferSize - 1, 1)) << 1;
+        this.entries = new Entry[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry(i);
+        }
+        open();
+        writer = new Thread(this::writeEntries, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues an entry for a completely written response, never waiting for the disk.
+     */
+    void log(InetAddress client, HttpRequest request, HttpResponse response) {
+        if (closed && !writer.isAlive()) {
+            dropped.increment();
+            return;
+        }
+        Entry entry;
+        long sequence;
+        while (true) {
+            sequence = tail.get();
+            entry = entries[(int) sequence & mask];
+            long available = entry.sequence;
+            if (available == sequence) {
+                if (tail.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+            } else if (available < sequence) {
+                if (policy == AccessLogPolicy.DROP || closed) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        }
+        entry.time = System.currentTimeMillis();
+        entry.client = client;
+        entry.request = request;
+        entry.status = response.getStatus();
+        entry.bodyBytes = response.getBodyBytesWritten();
+        entry.sequence = sequence + 1;
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes the queued entries and closes the file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeEntries() {
+        try {
+            while (true) {
+                if (drain() == 0) {
+                    flush();
+                    if (closed && drain() == 0) {
+                        flush();
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                if (maxBytes > 0 && fileSize >= maxBytes
+                        || rotateInterval > 0 && System.currentTimeMillis() - openedAt >= rotateInterval) {
+                    flush();
+                    rotate();
+                }
+            }
+        } catch (IOException exception) {
+            // Nobody frees the slots any more, producers have to drop instead of waiting for them
+            closed = true;
+            log.info("Access log stopped: " + exception);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                log.info(exception.toString());
+            }
+        }
+    }
+
+    /**
+     * Formats up to one buffer worth of entries, so a steady stream of requests cannot hold off rotation.
+     *
+     * @return the number of entries taken from the ring buffer
+     */
+    private int drain() throws IOException {
+        int count = 0;
+        while (count < entries.length) {
+            Entry entry = entries[(int) head & mask];
+            if (entry.sequence != head + 1) {
+                break;
+            }
+            formatEntry(entry);
+            entry.client = null;
+            entry.request = null;
+            entry.sequence = head + entries.length;
+            head++;
+            count++;
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > writeBuffer.remaining()) {
+                flush();
+            }
+            if (bytes.length > writeBuffer.remaining()) {
+                write(ByteBuffer.wrap(bytes));
+            } else {
+                writeBuffer.put(bytes);
+            }
+        }
+        return count;
+    }
+
+    private void formatEntry(Entry entry) {
+        line.setLength(0);
+        line.append(entry.client == null ? "-" : entry.client.getHostAddress()).append(" - - [")
+                .append(formatTime(entry.time)).append("] \"");
+        HttpRequest request = entry.request;
+        if (request == null) {
+            line.append('-');
+        } else {
+            appendEscaped(request.getMethod());
+            line.append(' ');
+            appendEscaped(request.getTarget());
+            line.append(' ');
+            appendEscaped(request.getVersion());
+        }
+        line.append("\" ").append(entry.status).append(' ');
+        if (entry.bodyBytes > 0) {
+            line.append(entry.bodyBytes);
+        } else {
+            line.append('-');
+        }
+        if (format == AccessLogFormat.COMBINED) {
+            appendQuotedHeader(request, HttpHeaders.REFERER);
+            appendQuotedHeader(request, HttpHeaders.USER_AGENT);
+        }
+        line.append('\n');
+    }
+
+    private String formatTime(long time) {
+        long second = time / 1000;
+        if (second != formattedSecond) {
+            formattedTime = TIME_FORMAT.format(Instant.ofEpochMilli(time));
+            formattedSecond = second;
+        }
+        return formattedTime;
+    }
+
+    private void appendQuotedHeader(HttpRequest request, String name) {
+        String value = request == null ? null : request.getHeader(name);
+        line.append(" \"");
+        if (value == null) {
+            line.append('-');
+        } else {
+            appendEscaped(value);
+        }
+        line.append('"');
+    }
+
+    /**
+     * Escapes quotes, backslashes and control characters the way Apache does, so a client cannot forge entries.
+     */
+    private void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7f) {
+                line.append("\\x").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            } else {
+                line.append(c);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        write(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer);
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileSize = channel.size();
+        openedAt = System.currentTimeMillis();
+    }
+
+    private void rotate() throws IOException {
+        if (fileSize == 0) {
+            openedAt = System.currentTimeMillis();
+            return;
+        }
+        channel.close();
+        String suffix = ROTATED_SUFFIX.format(Instant.now());
+        Path rotated = path.resolveSibling(path.getFileName() + "." + suffix);
+        for (int i = 1; Files.exists(rotated); i++) {
+            rotated = path.resolveSibling(path.getFileName() + "." + suffix + "-" + i);
+        }
+        if (Files.exists(path)) {
+            Files.move(path, rotated);
+        }
+        open();
+    }
+
+    /**
+     * A slot of the ring buffer. The sequence tells whose turn it is: equal to the ticket of the producer that
+     * may fill it, one more once it is filled and waits for the writer.
+     */
+    private static final class Entry {
+
+        private volatile long sequence;
+        private long time;
+        private InetAddress client;
+        private HttpRequest request;
+        private int status;
+        private long bodyBytes;
+
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.server;
+
+public enum AccessLogFormat {
+    COMMON,
+    COMBINED;
+
+    public static AccessLogFormat getByName(String name) {
+        for (AccessLogFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown access log format " + name);
+    }
+}
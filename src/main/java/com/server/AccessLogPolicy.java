@@ -0,0 +1,24 @@
+package com.server;
+
+/**
+ * What a request thread does when the access log buffer is full.
+ */
+public enum AccessLogPolicy {
+    /**
+     * Drops the entry and counts it.
+     */
+    DROP,
+    /**
+     * Waits for the writer to make room.
+     */
+    BLOCK;
+
+    public static AccessLogPolicy getByName(String name) {
+        for (AccessLogPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown access log policy " + name);
+    }
+}
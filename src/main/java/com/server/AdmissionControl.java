@@ -0,0 +1,63 @@
+package com.server;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounds the number of open connections, in total and per client address, so an overloaded server turns new
+ * clients away quickly instead of queueing them until they time out.
+ */
+class AdmissionControl {
+
+    enum Rejection {
+        CAPACITY, CLIENT_LIMIT, QUEUE_FULL
+    }
+
+    private final int maxConnections;
+    private final int maxConnectionsPerClient;
+    private final Map<InetAddress, int[]> perClient = new HashMap<>();
+    private int connections;
+
+    /**
+     * @param maxConnectionsPerClient limit per client address, 0 for none
+     */
+    AdmissionControl(int maxConnections, int maxConnectionsPerClient) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+    }
+
+    /**
+     * Admits a connection, which must be released once it is closed.
+     *
+     * @return null if the connection is admitted, otherwise the reason it is rejected
+     */
+    synchronized Rejection admit(InetAddress client) {
+        if (connections >= maxConnections) {
+            return Rejection.CAPACITY;
+        }
+        if (maxConnectionsPerClient > 0) {
+            int[] count = perClient.computeIfAbsent(client, address -> new int[1]);
+            if (count[0] >= maxConnectionsPerClient) {
+                return Rejection.CLIENT_LIMIT;
+            }
+            count[0]++;
+        }
+        connections++;
+        return null;
+    }
+
+    synchronized void release(InetAddress client) {
+        connections--;
+        if (maxConnectionsPerClient > 0) {
+            int[] count = perClient.get(client);
+            if (count != null && --count[0] == 0) {
+                perClient.remove(client);
+            }
+        }
+    }
+
+    synchronized int getConnections() {
+        return connections;
+    }
+}
@@ -0,0 +1,45 @@
+package com.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Consumes a request body as it arrives instead of buffering it in the request.
+ */
+interface BodySink {
+
+    /**
+     * Consumes the remaining bytes of the buffer, all of them unless the sink has to wait, see
+     * {@link #isWaiting()}.
+     */
+    void write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * @return true if the sink may not take more bytes until it has written what it holds, the caller should
+     * stop reading the body meanwhile
+     */
+    default boolean isWaiting() {
+        return false;
+    }
+
+    /**
+     * Runs the listener, from any thread, once the sink may take bytes again, right away if it already may.
+     */
+    default void whenReady(Runnable listener) {
+        listener.run();
+    }
+
+    void complete() throws IOException;
+
+    /**
+     * Releases everything the sink holds after an incomplete or failed request.
+     */
+    void abort();
+
+    interface Factory {
+        /**
+         * @return a sink for the request body or null to buffer it in {@link HttpRequest#getBody()}
+         */
+        BodySink create(HttpRequest request) throws IOException;
+    }
+}
@@ -0,0 +1,192 @@
+package com.server;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.server.MyServer.log;
+
+/**
+ * Direct buffers shared by the connections, in power of two size classes from 2 KB to 64 KB. Buffers are cut
+ * from 2 MB slabs, so direct memory is allocated in a few large blocks instead of once per connection or
+ * response. Threads that lease and release all the time, the event loops, keep a small cache per class in front
+ * of the shared queues. Released buffers beyond the pooled byte limit are left to the garbage collector, larger
+ * sizes than the biggest class are allocated and dropped every time.
+ * <p>
+ * With leak detection every lease records its stack, so buffers released twice are caught and buffers never
+ * released are reported by {@link #reportLeaks()}.
+ */
+final class BufferPool {
+
+    static final int MIN_SIZE = 2048;
+    static final int MAX_SIZE = 65536;
+    private static final int SLAB_SIZE = 2 << 20;
+    private static final int THREAD_CACHE_SIZE = 16;
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+
+    private final long maxPooledBytes;
+    private final Map<ByteBuffer, Throwable> leases;
+    private final Queue<ByteBuffer>[] shared;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches = new ThreadLocal<>();
+    private final AtomicLong sharedBytes = new AtomicLong();
+    private final LongAdder idleBytes = new LongAdder();
+    private final LongAdder leasedBytes = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    /**
+     * @param maxPooledBytes idle bytes kept in the shared queues, on top of the thread caches
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferPool(long maxPooledBytes, boolean leakDetection) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.leases = leakDetection ? new IdentityHashMap<>() : null;
+        this.shared = new Queue[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Gives the calling thread a cache of its own. Only worth it for threads that live as long as the server.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void enableThreadCache() {
+        ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            caches[i] = new ArrayDeque<>(THREAD_CACHE_SIZE);
+        }
+        threadCaches.set(caches);
+    }
+
+    /**
+     * @return a cleared buffer of at least the size, to be handed back with {@link #release(ByteBuffer)}
+     */
+    ByteBuffer lease(int size) {
+        ByteBuffer buffer;
+        if (size > MAX_SIZE) {
+            buffer = ByteBuffer.allocateDirect(size);
+            allocatedBytes.add(size);
+        } else {
+            int index = classIndex(size);
+            ArrayDeque<ByteBuffer>[] caches = threadCaches.get();
+            buffer = caches != null ? caches[index].poll() : null;
+            if (buffer == null) {
+                buffer = shared[index].poll();
+                if (buffer != null) {
+                    sharedBytes.addAndGet(-buffer.capacity());
+                }
+            }
+            if (buffer == null) {
+                buffer = allocateSlab(index);
+            }
+            idleBytes.add(-buffer.capacity());
+            buffer.clear();
+        }
+        leasedBytes.add(buffer.capacity());
+        if (leases != null) {
+            synchronized (leases) {
+                leases.put(buffer, new Throwable("Buffer of " + buffer.capacity() + " bytes leased"));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Takes a buffer back. It must not be used afterwards, another lease may already hold it.
+     */
+    void release(ByteBuffer buffer) {
+        if (leases != null) {
+            synchronized (leases) {
+                if (leases.remove(buffer) == null) {
+                    log.info("Buffer released twice or not leased from the pool\n" + stackTrace(new Throwable()));
+                    return;
+                }
+            }
+        }
+        int capacity = buffer.capacity();
+        leasedBytes.add(-capacity);
+        if (capacity > MAX_SIZE || Integer.bitCount(capacity) != 1 || capacity < MIN_SIZE) {
+            return;
+        }
+        int index = classIndex(capacity);
+        ArrayDeque<ByteBuffer>[] caches = threadCaches.get();
+        if (caches != null && caches[index].size() < THREAD_CACHE_SIZE) {
+            caches[index].push(buffer);
+        } else if (sharedBytes.addAndGet(capacity) <= maxPooledBytes) {
+            shared[index].add(buffer);
+        } else {
+            sharedBytes.addAndGet(-capacity);
+            return;
+        }
+        idleBytes.add(capacity);
+    }
+
+    long getLeasedBytes() {
+        return leasedBytes.sum();
+    }
+
+    long getIdleBytes() {
+        return idleBytes.sum();
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Logs where the buffers still leased were leased, when leak detection is on.
+     *
+     * @return the number of buffers still leased, 0 without leak detection
+     */
+    int reportLeaks() {
+        if (leases == null) {
+            return 0;
+        }
+        synchronized (leases) {
+            for (Throwable lease : leases.values()) {
+                log.info("Buffer never released\n" + stackTrace(lease));
+            }
+            return leases.size();
+        }
+    }
+
+    /**
+     * Cuts a slab into buffers of the class, returning one and sharing the others.
+     */
+    private ByteBuffer allocateSlab(int index) {
+        int size = MIN_SIZE << index;
+        ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        allocatedBytes.add(SLAB_SIZE);
+        ByteBuffer first = null;
+        for (int offset = 0; offset < SLAB_SIZE; offset += size) {
+            slab.limit(offset + size).position(offset);
+            ByteBuffer buffer = slab.slice();
+            idleBytes.add(size);
+            if (first == null) {
+                first = buffer;
+            } else {
+                sharedBytes.addAndGet(size);
+                shared[index].add(buffer);
+            }
+        }
+        return first;
+    }
+
+    private static int classIndex(int size) {
+        int rounded = size <= MIN_SIZE ? MIN_SIZE : Integer.highestOneBit(size - 1) << 1;
+        return Integer.numberOfTrailingZeros(rounded / MIN_SIZE);
+    }
+
+    private static String stackTrace(Throwable throwable) {
+        StringWriter trace = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(trace));
+        return trace.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class ByteRange {
+
+    private static final String UNIT = "bytes=";
+    private static final int MAX_RANGES = 16;
+
+    private final long start;
+    private final long end;
+
+    ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses a Range header against a resource of the given length.
+     *
+     * @return the satisfiable ranges, an empty list if none is satisfiable or null if the header must be ignored
+     */
+    static List<ByteRange> parse(String header, long length) {
+        if (header == null || !header.regionMatches(true, 0, UNIT, 0, UNIT.length())) {
+            return null;
+        }
+        String[] specs = header.substring(UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            String trimmed = spec.trim();
+            int dash = trimmed.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            try {
+                ByteRange range;
+                if (dash == 0) {
+                    long suffix = Long.parseLong(trimmed.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    range = new ByteRange(Math.max(0, length - suffix), length - 1);
+                } else {
+                    long first = Long.parseLong(trimmed.substring(0, dash));
+                    long last = length - 1;
+                    if (dash != trimmed.length() - 1) {
+                        long requested = Long.parseLong(trimmed.substring(dash + 1));
+                        if (requested < first) {
+                            return null;
+                        }
+                        last = Math.min(requested, last);
+                    }
+                    range = new ByteRange(first, last);
+                }
+                if (range.start < length && range.start <= range.end) {
+                    ranges.add(range);
+                }
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+        }
+        return ranges.isEmpty() ? Collections.<ByteRange>emptyList() : ranges;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getLength() {
+        return end - start + 1;
+    }
+
+    String toContentRange(long length) {
+        return "bytes " + start + "-" + end + "/" + length;
+    }
+}
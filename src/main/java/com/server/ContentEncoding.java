@@ -0,0 +1,105 @@
+package com.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+enum ContentEncoding {
+    GZIP("gzip", ".gz"),
+    DEFLATE("deflate", null);
+
+    private final String token;
+    private final String extension;
+
+    ContentEncoding(String token, String extension) {
+        this.token = token;
+        this.extension = extension;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * @return the file name extension of precompressed siblings or null if they are not looked up
+     */
+    String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Picks the encoding with the highest quality in an Accept-Encoding header, preferring gzip on ties.
+     *
+     * @return the encoding or null if the response should not be encoded
+     */
+    static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        ContentEncoding best = null;
+        double bestQuality = 0;
+        double wildcard = -1;
+        double[] qualities = {-1, -1};
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String coding = parameters[0].trim();
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException exception) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("*")) {
+                wildcard = quality;
+            }
+            for (ContentEncoding encoding : values()) {
+                if (coding.equalsIgnoreCase(encoding.token)) {
+                    qualities[encoding.ordinal()] = quality;
+                }
+            }
+        }
+        for (ContentEncoding encoding : values()) {
+            double quality = qualities[encoding.ordinal()] == -1 ? wildcard : qualities[encoding.ordinal()];
+            if (quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    byte[] encode(byte[] bytes) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (OutputStream outputStream = newOutputStream(encoded)) {
+            outputStream.write(bytes);
+        }
+        return encoded.toByteArray();
+    }
+
+    byte[] encode(Path path, long size) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream((int) (size / 4) + 64);
+        try (InputStream inputStream = Files.newInputStream(path);
+             OutputStream outputStream = newOutputStream(encoded)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+        return encoded.toByteArray();
+    }
+
+    private OutputStream newOutputStream(OutputStream outputStream) throws IOException {
+        return this == GZIP ? new GZIPOutputStream(outputStream, 8192) : new DeflaterOutputStream(outputStream);
+    }
+}
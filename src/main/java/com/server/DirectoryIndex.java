@@ -0,0 +1,330 @@
+package com.server;
+
+import com.util.HttpHeaders;
+import com.util.MimeType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.server.MyServer.log;
+
+/**
+ * Home page with the listing of the file folder. The folder is listed and sorted once per change, detected with a
+ * {@link WatchService}, and the most recently requested pages are kept rendered into pre-encoded response buffers.
+ * Pages are keyed by query parameters any client can vary, so only a few are kept, the others are rendered again.
+ */
+class DirectoryIndex implements Closeable {
+
+    private static final String BODY_TAG = "<body>";
+    private static final int MAX_CACHED_PAGES = 16;
+
+    enum Sort {
+        NAME(Comparator.comparing(entry -> entry.name)),
+        SIZE(Comparator.<Entry>comparingLong(entry -> entry.size).thenComparing(entry -> entry.name)),
+        MODIFIED(Comparator.<Entry>comparingLong(entry -> entry.lastModified).thenComparing(entry -> entry.name));
+
+        private final Comparator<Entry> comparator;
+
+        Sort(Comparator<Entry> comparator) {
+            this.comparator = comparator;
+        }
+
+        static Sort getByName(String name) {
+            for (Sort sort : values()) {
+                if (sort.name().equalsIgnoreCase(name)) {
+                    return sort;
+                }
+            }
+            return NAME;
+        }
+    }
+
+    private final Path folder;
+    private final String templateHead;
+    private final String templateTail;
+    private final int pageSize;
+    private final boolean compression;
+    private final WatchService watchService;
+    private volatile Listing listing;
+
+    DirectoryIndex(Path folder, Path template, int pageSize, boolean compression) throws IOException {
+        this.folder = folder;
+        this.pageSize = pageSize;
+        this.compression = compression;
+        String html = new String(Files.readAllBytes(template), StandardCharsets.UTF_8);
+        int body = html.indexOf(BODY_TAG);
+        int split = body == -1 ? 0 : body + BODY_TAG.length();
+        this.templateHead = html.substring(0, split);
+        this.templateTail = html.substring(split);
+        this.watchService = watch(folder);
+    }
+
+    HttpResponse render(HttpRequest request) throws IOException {
+        Sort sort = Sort.getByName(request.getQueryParameter("sort"));
+        boolean descending = "desc".equalsIgnoreCase(request.getQueryParameter("order"));
+        Listing current = getListing();
+        int pages = Math.max(1, (current.entries.size() + pageSize - 1) / pageSize);
+        int page = Math.min(parsePage(request.getQueryParameter("page")), pages);
+        ContentEncoding encoding = compression
+                ? ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING)) : null;
+        String key = sort.name() + (descending ? "-" : "+") + page + (encoding == null ? "" : encoding.getToken());
+        Page rendered = current.pages.get(key);
+        if (rendered == null) {
+            rendered = renderPage(current, sort, descending, page, pages, encoding);
+            current.pages.put(key, rendered);
+        }
+        return HttpResponse.create(200, rendered.encoded.duplicate(), rendered.headerLength);
+    }
+
+    /**
+     * Drops the rendered pages, for changes that must be visible before the watch event arrives.
+     */
+    synchronized void invalidate() {
+        listing = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private Listing getListing() throws IOException {
+        Listing current = listing;
+        if (current != null && (watchService != null || current.folderModified == folderModified())) {
+            return current;
+        }
+        synchronized (this) {
+            if (listing != null && listing != current) {
+                return listing;
+            }
+            return rebuild();
+        }
+    }
+
+    private Listing rebuild() throws IOException {
+        long folderModified = folderModified();
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(MultipartDecoder.TEMP_FILE_PREFIX)) {
+                    continue;
+                }
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException exception) {
+                    // Deleted or renamed since it was listed, the watcher will rebuild the listing again
+                    continue;
+                }
+                entries.add(new Entry(path.toString(), name, attributes.size(),
+                        attributes.lastModifiedTime().toMillis()));
+            }
+        }
+        listing = new Listing(entries, folderModified);
+        return listing;
+    }
+
+    private long folderModified() throws IOException {
+        return Files.getLastModifiedTime(folder).toMillis();
+    }
+
+    private Page renderPage(Listing listing, Sort sort, boolean descending, int current, int pages,
+                                  ContentEncoding encoding) throws IOException {
+        List<Entry> entries = listing.getSorted(sort, descending);
+        StringBuilder html = new StringBuilder(templateHead).append('\n');
+        html.append("<p>Sort by ");
+        for (Sort option : Sort.values()) {
+            boolean reverse = option == sort && !descending;
+            html.append("<a href=\"/?sort=").append(option.name().toLowerCase())
+                    .append(reverse ? "&amp;order=desc" : "").append("\">")
+                    .append(option.name().toLowerCase()).append("</a> ");
+        }
+        html.append("</p>\n<ul>\n");
+        int end = Math.min(entries.size(), current * pageSize);
+        for (Entry entry : entries.subList((current - 1) * pageSize, end)) {
+            html.append("<li><a href=\"").append(escape(entry.href)).append("\">")
+                    .append(escape(entry.name)).append("</a></li>\n");
+        }
+        html.append("</ul>\n");
+        if (pages > 1) {
+            html.append("<p>");
+            for (int i = 1; i <= pages; i++) {
+                if (i == current) {
+                    html.append(i).append(' ');
+                } else {
+                    html.append("<a href=\"/?sort=").append(sort.name().toLowerCase())
+                            .append(descending ? "&amp;order=desc" : "").append("&amp;page=").append(i)
+                            .append("\">").append(i).append("</a> ");
+                }
+            }
+            html.append("</p>\n");
+        }
+        html.append(templateTail);
+        byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+        if (encoding != null) {
+            body = encoding.encode(body);
+        }
+        HttpResponse response = HttpResponse.create(200, body, MimeType.html);
+        if (compression) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (encoding != null) {
+            response.addHeader(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+        }
+        byte[] headers = response.getEntityHeaderBytes();
+        ByteBuffer encoded = ByteBuffer.allocate(headers.length + body.length);
+        encoded.put(headers).put(body).flip();
+        return new Page(encoded.asReadOnlyBuffer(), headers.length);
+    }
+
+    private WatchService watch(Path folder) {
+        try {
+            WatchService service = folder.getFileSystem().newWatchService();
+            folder.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread watcher = new Thread(() -> watchLoop(service), "directory-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            return service;
+        } catch (IOException | UnsupportedOperationException exception) {
+            log.info("Cannot watch " + folder + ", checking its modification time instead: " + exception);
+            return null;
+        }
+    }
+
+    private void watchLoop(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                key.pollEvents();
+                invalidate();
+                if (!key.reset()) {
+                    log.info("Stopped watching " + folder);
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException exception) {
+            log.fine("Directory watcher stopped");
+        }
+    }
+
+    private static int parsePage(String page) {
+        try {
+            return page == null ? 1 : Math.max(1, Integer.parseInt(page));
+        } catch (NumberFormatException exception) {
+            return 1;
+        }
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static class Entry {
+
+        private final String href;
+        private final String name;
+        private final long size;
+        private final long lastModified;
+
+        Entry(String path, String name, long size, long lastModified) {
+            this.href = path.replace(" ", "%20");
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * A rendered page with its entity headers, ready to be sent.
+     */
+    private static class Page {
+
+        private final ByteBuffer encoded;
+        private final int headerLength;
+
+        Page(ByteBuffer encoded, int headerLength) {
+            this.encoded = encoded;
+            this.headerLength = headerLength;
+        }
+    }
+
+    /**
+     * Rendered pages in access order, evicting the least recently used beyond {@link #MAX_CACHED_PAGES}.
+     */
+    private static class PageCache extends LinkedHashMap<String, Page> {
+
+        private static final long serialVersionUID = 1L;
+
+        PageCache() {
+            super(MAX_CACHED_PAGES * 2, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    }
+
+    private static class Listing {
+
+        private final List<Entry> entries;
+        private final long folderModified;
+        private final Map<String, List<Entry>> sorted = new ConcurrentHashMap<>();
+        private final Map<String, Page> pages = Collections.synchronizedMap(new PageCache());
+
+        Listing(List<Entry> entries, long folderModified) {
+            this.entries = entries;
+            this.folderModified = folderModified;
+        }
+
+        List<Entry> getSorted(Sort sort, boolean descending) {
+            return sorted.computeIfAbsent(sort.name() + descending, key -> {
+                List<Entry> copy = new ArrayList<>(entries);
+                copy.sort(descending ? Collections.reverseOrder(sort.comparator) : sort.comparator);
+                return copy;
+            });
+        }
+    }
+}
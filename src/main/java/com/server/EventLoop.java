@@ -0,0 +1,225 @@
+package com.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import static com.server.MyServer.log;
+
+class EventLoop implements Runnable, Executor {
+
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+    private static final long DRAIN_POLL_MILLIS = 50;
+
+    private final Selector selector;
+    private final RequestProcessor processor;
+    private final ServerMetrics metrics;
+    private final AdmissionControl admission;
+    private final ServerSettings settings;
+    private final int idleTimeout;
+    private final TlsContext tls;
+    private final BufferPool buffers;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private volatile long drainDeadline;
+    private volatile boolean draining;
+    private int idleClosed;
+    private int aborted;
+
+    /**
+     * @param tls the TLS parameters, or null for plain HTTP
+     */
+    EventLoop(RequestProcessor processor, ServerMetrics metrics, AdmissionControl admission, ServerSettings settings,
+              TlsContext tls, BufferPool buffers) throws IOException {
+        this.selector = Selector.open();
+        this.processor = processor;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.settings = settings;
+        this.idleTimeout = settings.getKeepAliveTimeout();
+        this.tls = tls;
+        this.buffers = buffers;
+    }
+
+    void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the task on the event loop thread, as other threads must not touch its connections.
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Closes connections as soon as they are between requests and stops once none are left, closing whatever
+     * is still open at the deadline.
+     */
+    void drain(long deadline) {
+        drainDeadline = deadline;
+        draining = true;
+        selector.wakeup();
+    }
+
+    /**
+     * @return connections closed while waiting for a request during a drain, valid once the loop has stopped
+     */
+    int getIdleClosed() {
+        return idleClosed;
+    }
+
+    /**
+     * @return connections closed in the middle of a request or response, valid once the loop has stopped
+     */
+    int getAborted() {
+        return aborted;
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        buffers.enableThreadCache();
+        try {
+            long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL_MILLIS;
+            while (running) {
+                selector.select(draining ? DRAIN_POLL_MILLIS : SWEEP_INTERVAL_MILLIS);
+                registerPendingChannels();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextSweep) {
+                    closeIdleConnections(now);
+                    nextSweep = now + SWEEP_INTERVAL_MILLIS;
+                }
+                if (draining && (closeConnectionsBetweenRequests() || now >= drainDeadline)) {
+                    break;
+                }
+            }
+        } catch (IOException exception) {
+            log.info(exception.toString());
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                TlsChannel tlsChannel = tls != null ? new TlsChannel(channel, tls.createEngine(), buffers)
+                        : null;
+                key.attach(new NioConnection(channel, tlsChannel, key, this, processor, metrics, admission,
+                        settings, buffers));
+            } catch (IOException exception) {
+                log.info(exception.toString());
+                admission.release(channel.socket().getInetAddress());
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isValid() && key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | CancelledKeyException exception) {
+            log.info(exception.toString());
+            connection.close();
+        }
+    }
+
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection.isIdle(now, idleTimeout)) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * @return true if no connection is left open
+     */
+    private boolean closeConnectionsBetweenRequests() {
+        boolean empty = pendingChannels.isEmpty();
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection.isBetweenRequests()) {
+                connection.close();
+                idleClosed++;
+            } else {
+                empty = false;
+            }
+        }
+        return empty;
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            NioConnection connection = (NioConnection) key.attachment();
+            if (draining && !connection.isBetweenRequests()) {
+                aborted++;
+            }
+            connection.close();
+        }
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            admission.release(channel.socket().getInetAddress());
+            closeQuietly(channel);
+        }
+        try {
+            selector.close();
+        } catch (IOException exception) {
+            log.info(exception.toString());
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            log.info(exception.toString());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.server.MyServer.log;
+
+public enum ExecutorMode {
+    PLATFORM,
+    VIRTUAL;
+
+    public static ExecutorMode getByName(String name) {
+        for (ExecutorMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown executor mode " + name);
+    }
+
+    /**
+     * @param queueSize connections that may wait for one of the platform threads, further ones are rejected
+     */
+    ExecutorService createExecutor(int platformThreads, int queueSize) {
+        if (this == VIRTUAL) {
+            ExecutorService executorService = newVirtualThreadPerTaskExecutor();
+            if (executorService != null) {
+                return executorService;
+            }
+            log.info("Virtual threads are not available on Java " + System.getProperty("java.version")
+                    + ", falling back to " + platformThreads + " platform threads");
+        }
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+        return new ThreadPoolExecutor(platformThreads, platformThreads, 0, TimeUnit.MILLISECONDS, queue);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        // Looked up reflectively so the Java 8 build still runs virtual threads on Java 21+
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException exception) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.server;
+
+import com.util.HttpHeaders;
+import com.util.MimeType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bounded cache of small files, stored off-heap as pre-encoded entity headers followed by the body.
+ * Entries are evicted in LRU order, but a new file is only admitted when it is requested more often than the
+ * entries it would evict (TinyLFU admission), so a scan over many cold files cannot flush the hot ones. Files
+ * that are not admitted are neither read nor encoded, the caller serves them the uncached way.
+ * Entries are revalidated against the file modification time and size at most once per second.
+ * Content encoded variants of a file are cached as separate entries next to the identity one.
+ * <p>
+ * Lookups and the frequency sketch take no lock. The LRU order is kept under a lock that hits only try to
+ * take, so under contention the order is close to LRU rather than exact.
+ */
+public class FileCache {
+
+    private static final long REVALIDATE_MILLIS = 1000;
+    // Entity headers of a file are a few hundred bytes, the estimate only has to be in the right range
+    private static final int ESTIMATED_HEADER_BYTES = 256;
+
+    private final long capacity;
+    private final long maxFileSize;
+    private final Map<Path, Entry> identity = new ConcurrentHashMap<>();
+    private final Map<ContentEncoding, Map<Path, Entry>> encoded = new EnumMap<>(ContentEncoding.class);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Entry, Entry> order = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long size;
+
+    public FileCache(long capacity, long maxFileSize) {
+        this.capacity = capacity;
+        this.maxFileSize = maxFileSize;
+        this.sketch = new FrequencySketch((int) Math.min(Math.max(capacity / 4096, 1024), 1 << 20));
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            encoded.put(encoding, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * @return a response served from memory or null if the file is missing, too large or not popular enough
+     * to be cached
+     */
+    HttpResponse get(HttpRequest request, Path path, MimeType contentType) throws IOException {
+        return get(request, path, contentType, null);
+    }
+
+    /**
+     * Same as {@link #get(HttpRequest, Path, MimeType)} for the file compressed with the encoding.
+     */
+    HttpResponse get(HttpRequest request, Path path, MimeType contentType, ContentEncoding encoding)
+            throws IOException {
+        int hash = hash(path, encoding);
+        sketch.increment(hash);
+        Entry entry = entries(encoding).get(path);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.validatedAt < REVALIDATE_MILLIS) {
+            return hit(entry, request);
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException exception) {
+            remove(path, encoding);
+            return null;
+        }
+        if (entry != null && entry.matches(attributes)) {
+            entry.validatedAt = now;
+            return hit(entry, request);
+        }
+        misses.increment();
+        if (!attributes.isRegularFile() || attributes.size() > maxFileSize) {
+            remove(path, encoding);
+            return null;
+        }
+        // The encoded size is not known before compressing, the file size is an upper bound for it
+        long weight = encoding == null ? attributes.size() + ESTIMATED_HEADER_BYTES : attributes.size();
+        if (!isAdmitted(path, encoding, hash, weight)) {
+            remove(path, encoding);
+            return null;
+        }
+        entry = encoding == null ? load(path, hash, attributes, contentType)
+                : loadEncoded(path, encoding, hash, attributes, contentType);
+        if (entry == null) {
+            return null;
+        }
+        admit(entry);
+        return entry.createResponse(request);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return order.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private HttpResponse hit(Entry entry, HttpRequest request) {
+        hits.increment();
+        if (lock.tryLock()) {
+            try {
+                order.get(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return entry.createResponse(request);
+    }
+
+    private Map<Path, Entry> entries(ContentEncoding encoding) {
+        return encoding == null ? identity : encoded.get(encoding);
+    }
+
+    private Entry load(Path path, int hash, BasicFileAttributes attributes, MimeType contentType)
+            throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = file.size();
+            if (fileSize != attributes.size()) {
+                return null;
+            }
+            FileValidator validator = FileValidator.of(attributes);
+            HttpResponse response = HttpResponse.create(200, file, contentType);
+            validator.addHeaders(response);
+            if (contentType.isCompressible()) {
+                response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            byte[] headers = response.getEntityHeaderBytes();
+            ByteBuffer content = ByteBuffer.allocateDirect(headers.length + (int) fileSize);
+            content.put(headers);
+            while (content.hasRemaining()) {
+                if (file.read(content) == -1) {
+                    return null;
+                }
+            }
+            content.flip();
+            return new Entry(path, null, hash, attributes, validator, content.asReadOnlyBuffer(), headers.length);
+        }
+    }
+
+    private Entry loadEncoded(Path path, ContentEncoding encoding, int hash, BasicFileAttributes attributes,
+                              MimeType contentType) throws IOException {
+        byte[] body = encoding.encode(path, attributes.size());
+        FileValidator validator = FileValidator.of(attributes, encoding);
+        HttpResponse response = HttpResponse.create(200, body, contentType);
+        validator.addHeaders(response);
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        byte[] headers = response.getEntityHeaderBytes();
+        ByteBuffer content = ByteBuffer.allocateDirect(headers.length + body.length);
+        content.put(headers).put(body).flip();
+        return new Entry(path, encoding, hash, attributes, validator, content.asReadOnlyBuffer(), headers.length);
+    }
+
+    private boolean isAdmitted(Path path, ContentEncoding encoding, int hash, long weight) {
+        lock.lock();
+        try {
+            return selectVictims(entries(encoding).get(path), hash, weight) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the loaded entry if it still wins against the entries it evicts, its real size may differ from the
+     * estimate it was admitted with. Otherwise it only serves the request that loaded it.
+     */
+    private void admit(Entry candidate) {
+        lock.lock();
+        try {
+            Map<Path, Entry> entries = entries(candidate.encoding);
+            Entry previous = entries.get(candidate.path);
+            List<Entry> victims = selectVictims(previous, candidate.hash, candidate.weight);
+            if (victims == null) {
+                return;
+            }
+            if (previous != null) {
+                removeLocked(previous);
+            }
+            for (Entry victim : victims) {
+                removeLocked(victim);
+                evictions.increment();
+            }
+            entries.put(candidate.path, candidate);
+            order.put(candidate, candidate);
+            size += candidate.weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param previous the entry the candidate replaces, its space counts as free
+     * @return the least recently used entries to evict to make room, or null if the candidate is requested less
+     * often than one of them
+     */
+    private List<Entry> selectVictims(Entry previous, int hash, long weight) {
+        if (weight > capacity) {
+            return null;
+        }
+        int frequency = sketch.frequency(hash);
+        long available = capacity - size + (previous != null ? previous.weight : 0);
+        List<Entry> victims = new ArrayList<>();
+        Iterator<Entry> iterator = order.keySet().iterator();
+        while (available < weight && iterator.hasNext()) {
+            Entry victim = iterator.next();
+            if (victim == previous) {
+                continue;
+            }
+            if (sketch.frequency(victim.hash) >= frequency) {
+                return null;
+            }
+            victims.add(victim);
+            available += victim.weight;
+        }
+        return victims;
+    }
+
+    private void remove(Path path, ContentEncoding encoding) {
+        if (entries(encoding).get(path) == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry entry = entries(encoding).get(path);
+            if (entry != null) {
+                removeLocked(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeLocked(Entry entry) {
+        entries(entry.encoding).remove(entry.path);
+        order.remove(entry);
+        size -= entry.weight;
+    }
+
+    private static int hash(Path path, ContentEncoding encoding) {
+        return 31 * path.hashCode() + (encoding == null ? 0 : encoding.ordinal() + 1);
+    }
+
+    private static class Entry {
+
+        private final Path path;
+        private final ContentEncoding encoding;
+        private final int hash;
+        private final long lastModified;
+        private final long fileSize;
+        private final FileValidator validator;
+        private final ByteBuffer content;
+        private final int headerLength;
+        private final long weight;
+        private volatile long validatedAt;
+
+        Entry(Path path, ContentEncoding encoding, int hash, BasicFileAttributes attributes,
+              FileValidator validator, ByteBuffer content, int headerLength) {
+            this.path = path;
+            this.encoding = encoding;
+            this.hash = hash;
+            this.validator = validator;
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileSize = attributes.size();
+            this.content = content;
+            this.headerLength = headerLength;
+            this.weight = content.capacity();
+            this.validatedAt = System.currentTimeMillis();
+        }
+
+        HttpResponse createResponse(HttpRequest request) {
+            if (validator.isNotModified(request)) {
+                return validator.notModified();
+            }
+            return HttpResponse.create(200, content.duplicate(), headerLength);
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return attributes.lastModifiedTime().toMillis() == lastModified && attributes.size() == fileSize;
+        }
+    }
+
+    /**
+     * Count-min sketch of saturating 4-bit style counters that are halved periodically, so popularity decays.
+     * It is updated without locking: racing increments may be lost, which only makes the estimate a bit low.
+     */
+    private static class FrequencySketch {
+
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(int width) {
+            int tableWidth = Integer.highestOneBit(width);
+            this.table = new byte[SEEDS.length][tableWidth];
+            this.mask = tableWidth - 1;
+            this.sampleSize = 10 * tableWidth;
+        }
+
+        void increment(int hash) {
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                if (table[i][index] < MAX_COUNT) {
+                    table[i][index]++;
+                }
+            }
+            if (additions.incrementAndGet() == sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, table[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+            h ^= h >>> 15;
+            return h & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions.addAndGet(-sampleSize / 2);
+        }
+    }
+}
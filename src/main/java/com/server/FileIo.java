@@ -0,0 +1,319 @@
+package com.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.server.MyServer.log;
+
+/**
+ * A pool of threads of its own for disk reads and writes, so slow storage holds up these threads instead of the
+ * event loops. Uploads are written through {@link AsynchronousFileChannel}s bound to the pool; downloads read
+ * ahead from the file channel the response already holds, with positional reads on the same threads. Neither
+ * blocks the caller: both tell it when it can go on.
+ */
+final class FileIo implements Closeable {
+
+    private static final int MAX_PENDING_WRITES = 4;
+
+    private final ExecutorService executor;
+    private final BufferPool buffers;
+
+    FileIo(int threads, BufferPool buffers) {
+        this.buffers = buffers;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "file-io-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens a file for sequential writes from a few buffers in flight.
+     */
+    Writer openWriter(Path path, int bufferSize) throws IOException {
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(path,
+                Collections.singleton(StandardOpenOption.WRITE), executor);
+        return new Writer(channel, buffers, bufferSize);
+    }
+
+    /**
+     * Starts reading the file into the remaining space of the buffer.
+     */
+    Read read(FileChannel file, ByteBuffer buffer, long position) {
+        Read read = new Read(buffer);
+        executor.execute(() -> {
+            try {
+                read.complete(file.read(buffer, position), null);
+            } catch (IOException exception) {
+                read.complete(-1, exception);
+            }
+        });
+        return read;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Writes a file sequentially without waiting for the disk. The caller fills a buffer it takes from the
+     * writer and hands it back to be written, so the bytes are not copied again. When every buffer is in flight
+     * there is none to take, and the caller is told once a write is done.
+     */
+    static final class Writer implements Closeable {
+
+        private final AsynchronousFileChannel channel;
+        private final BufferPool buffers;
+        private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>(MAX_PENDING_WRITES);
+        private int inFlight;
+        private boolean closed;
+        private Runnable listener;
+        private IOException failure;
+        private long position;
+
+        private Writer(AsynchronousFileChannel channel, BufferPool buffers, int bufferSize) {
+            this.channel = channel;
+            this.buffers = buffers;
+            for (int i = 0; i < MAX_PENDING_WRITES; i++) {
+                free.add(buffers.lease(bufferSize));
+            }
+        }
+
+        /**
+         * @return a cleared buffer to fill and hand to {@link #write(ByteBuffer)}, or null while every buffer is
+         * being written
+         */
+        synchronized ByteBuffer take() throws IOException {
+            checkFailure();
+            ByteBuffer buffer = free.poll();
+            if (buffer != null) {
+                buffer.clear();
+            }
+            return buffer;
+        }
+
+        /**
+         * Writes the flipped buffer after the bytes written before. The buffer belongs to the writer again.
+         */
+        void write(ByteBuffer buffer) throws IOException {
+            int length = buffer.remaining();
+            synchronized (this) {
+                checkFailure();
+                if (length == 0) {
+                    free.add(buffer);
+                    return;
+                }
+                inFlight++;
+            }
+            submit(buffer, position);
+            position += length;
+        }
+
+        /**
+         * Takes back a buffer that is not to be written.
+         */
+        synchronized void release(ByteBuffer buffer) {
+            if (closed) {
+                buffers.release(buffer);
+            } else {
+                free.add(buffer);
+            }
+        }
+
+        synchronized boolean hasFree() {
+            return !free.isEmpty();
+        }
+
+        /**
+         * @return true if no write is in flight
+         */
+        synchronized boolean isIdle() {
+            return inFlight == 0;
+        }
+
+        /**
+         * Runs the listener once the next write in flight is done, right away if none is. Only the last listener
+         * runs.
+         */
+        void whenWritten(Runnable listener) {
+            synchronized (this) {
+                if (inFlight > 0) {
+                    this.listener = listener;
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        /**
+         * Closes the file as soon as the writes in flight are done and hands every buffer back to the pool,
+         * without waiting for them. Buffers taken and not written have to be released first.
+         *
+         * @throws IOException if a write has failed, only known for certain once the writer is idle
+         */
+        @Override
+        public void close() throws IOException {
+            boolean idle;
+            synchronized (this) {
+                if (!closed) {
+                    closed = true;
+                    for (ByteBuffer buffer : free) {
+                        buffers.release(buffer);
+                    }
+                    free.clear();
+                }
+                idle = inFlight == 0;
+            }
+            if (idle) {
+                channel.close();
+            }
+            synchronized (this) {
+                checkFailure();
+            }
+        }
+
+        /**
+         * Writes the buffer at its offset in the file, continuing after short writes.
+         */
+        private void submit(ByteBuffer buffer, long start) {
+            channel.write(buffer, start + buffer.position(), buffer, new CompletionHandler<Integer, ByteBuffer>() {
+                @Override
+                public void completed(Integer written, ByteBuffer attachment) {
+                    if (attachment.hasRemaining()) {
+                        submit(attachment, start);
+                    } else {
+                        done(attachment, null);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable exception, ByteBuffer attachment) {
+                    done(attachment, exception instanceof IOException ? (IOException) exception
+                            : new IOException(exception));
+                }
+            });
+        }
+
+        private void done(ByteBuffer buffer, IOException exception) {
+            Runnable notify;
+            boolean closeNow;
+            synchronized (this) {
+                if (failure == null) {
+                    failure = exception;
+                }
+                inFlight--;
+                closeNow = closed && inFlight == 0;
+                if (closed) {
+                    buffers.release(buffer);
+                } else {
+                    free.add(buffer);
+                }
+                notify = listener;
+                listener = null;
+            }
+            if (closeNow) {
+                try {
+                    channel.close();
+                } catch (IOException closeException) {
+                    log.info(closeException.toString());
+                }
+            }
+            if (notify != null) {
+                notify.run();
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * A read in progress. Its buffer belongs to the pool thread until the read is done.
+     */
+    static final class Read {
+
+        private final ByteBuffer buffer;
+        private boolean done;
+        private int count;
+        private IOException failure;
+        private Runnable listener;
+
+        Read(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * @return the buffer with the bytes read, flipped for reading
+         */
+        ByteBuffer getBuffer() throws IOException {
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * @return the number of bytes read, or -1 at the end of the file
+         */
+        synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         * Runs the listener once the read is done, right away if it already is. Only the last listener runs.
+         */
+        void whenDone(Runnable listener) {
+            synchronized (this) {
+                if (!done) {
+                    this.listener = listener;
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        /**
+         * Hands the buffer back to the pool once the read is done, replacing any listener.
+         */
+        void releaseTo(BufferPool buffers) {
+            whenDone(() -> buffers.release(buffer));
+        }
+
+        private void complete(int count, IOException failure) {
+            Runnable notify;
+            synchronized (this) {
+                this.done = true;
+                this.count = count;
+                this.failure = failure;
+                notify = listener;
+                listener = null;
+            }
+            if (notify != null) {
+                notify.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.server;
+
+import com.util.HttpHeaders;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * ETag and Last-Modified validators of a file, derived from its size and modification time.
+ */
+class FileValidator {
+
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final String etag;
+    private final long lastModifiedSeconds;
+    private final String lastModified;
+
+    private final ContentEncoding encoding;
+
+    static FileValidator of(BasicFileAttributes attributes) {
+        return new FileValidator(attributes.size(), attributes.lastModifiedTime().toMillis(), null);
+    }
+
+    /**
+     * Validators of an encoded representation, which gets its own ETag and no byte ranges.
+     */
+    static FileValidator of(BasicFileAttributes attributes, ContentEncoding encoding) {
+        return new FileValidator(attributes.size(), attributes.lastModifiedTime().toMillis(), encoding);
+    }
+
+    FileValidator(long size, long lastModifiedMillis, ContentEncoding encoding) {
+        this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModifiedMillis)
+                + (encoding == null ? "" : "-" + encoding.getToken()) + "\"";
+        this.lastModifiedSeconds = lastModifiedMillis / 1000;
+        this.lastModified = HTTP_DATE.format(Instant.ofEpochSecond(lastModifiedSeconds));
+        this.encoding = encoding;
+    }
+
+    void addHeaders(HttpResponse response) {
+        response.addHeader(HttpHeaders.ETAG, etag);
+        response.addHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        if (encoding == null) {
+            response.addHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        } else {
+            response.addHeader(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+        }
+    }
+
+    HttpResponse notModified() {
+        HttpResponse response = HttpResponse.create(304);
+        response.addHeader(HttpHeaders.ETAG, etag);
+        response.addHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        return response;
+    }
+
+    /**
+     * Evaluates If-None-Match, or If-Modified-Since when there is no If-None-Match, as in RFC 7232.
+     */
+    boolean isNotModified(HttpRequest request) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.startsWith("W/") && tag.substring(2).equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Long since = parseDate(request.getHeader(HttpHeaders.IF_MODIFIED_SINCE));
+        return since != null && lastModifiedSeconds <= since;
+    }
+
+    /**
+     * @return true if a Range header may be honoured, which If-Range only allows for an unchanged file
+     */
+    boolean isRangeAllowed(HttpRequest request) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        Long date = parseDate(ifRange);
+        return date != null && date == lastModifiedSeconds;
+    }
+
+    private static Long parseDate(String date) {
+        if (date == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch (DateTimeParseException exception) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.server;
+
+import java.io.IOException;
+
+/**
+ * Answers the requests of a route registered with a {@link Router}.
+ */
+public interface Handler {
+    HttpResponse handle(HttpRequest request) throws IOException;
+}
@@ -0,0 +1,162 @@
+package com.server;
+
+import com.util.HttpHeaders;
+import com.util.MimeType;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes response headers straight into a byte buffer. Status lines, common header names and every
+ * {@code Content-Type} line are encoded once, so writing the headers of a response allocates nothing.
+ */
+final class HeaderEncoder {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] COLON = {':', ' '};
+    private static final byte[][] STATUS_LINES = new byte[500][];
+    private static final byte[][] CONTENT_TYPE_LINES = new byte[MimeType.values().length][];
+    private static final Map<String, byte[]> NAMES = new HashMap<>();
+    private static final byte[] CONNECTION_CLOSE = ascii(HttpHeaders.CONNECTION + ": "
+            + HttpHeaders.CONNECTION_CLOSE + "\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii(HttpHeaders.CONNECTION + ": "
+            + HttpHeaders.CONNECTION_KEEP_ALIVE + "\r\n" + HttpHeaders.KEEP_ALIVE + ": timeout=");
+    private static final byte[] CONTENT_LENGTH = ascii(HttpHeaders.CONTENT_LENGTH + ": ");
+
+    static {
+        for (int status = 100; status < 600; status++) {
+            STATUS_LINES[status - 100] = ascii("HTTP/1.1 " + status + " " + getReasonPhrase(status) + "\r\n");
+        }
+        for (MimeType mimeType : MimeType.values()) {
+            CONTENT_TYPE_LINES[mimeType.ordinal()] = ascii(HttpHeaders.CONTENT_TYPE + ": "
+                    + mimeType.getContentType() + "\r\n");
+        }
+        for (String name : new String[]{HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_RANGE,
+                HttpHeaders.CONTENT_ENCODING, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED,
+                HttpHeaders.ACCEPT_RANGES, HttpHeaders.VARY, HttpHeaders.CACHE_CONTROL}) {
+            NAMES.put(name, ascii(name + ": "));
+        }
+    }
+
+    private HeaderEncoder() {
+    }
+
+    static String getReasonPhrase(int status) {
+        switch (status) {
+            case 100: return "Continue";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 303: return "See Other";
+            case 304: return "Not Modified";
+            case 307: return "Temporary Redirect";
+            case 308: return "Permanent Redirect";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 408: return "Request Timeout";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 414: return "URI Too Long";
+            case 416: return "Range Not Satisfiable";
+            case 417: return "Expectation Failed";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            case 505: return "HTTP Version Not Supported";
+            default: return "";
+        }
+    }
+
+    static void putStatusLine(ByteBuffer buffer, int status) {
+        if (status >= 100 && status < 600) {
+            buffer.put(STATUS_LINES[status - 100]);
+        } else {
+            putAscii(buffer, "HTTP/1.1 ");
+            putDecimal(buffer, status);
+            buffer.put((byte) ' ').put(CRLF);
+        }
+    }
+
+    static void putConnection(ByteBuffer buffer, boolean keepAlive, int timeoutSeconds) {
+        if (keepAlive) {
+            buffer.put(CONNECTION_KEEP_ALIVE);
+            putDecimal(buffer, timeoutSeconds);
+            buffer.put(CRLF);
+        } else {
+            buffer.put(CONNECTION_CLOSE);
+        }
+    }
+
+    static void putContentType(ByteBuffer buffer, MimeType contentType) {
+        buffer.put(CONTENT_TYPE_LINES[contentType.ordinal()]);
+    }
+
+    static void putContentLength(ByteBuffer buffer, long contentLength) {
+        buffer.put(CONTENT_LENGTH);
+        putDecimal(buffer, contentLength);
+        buffer.put(CRLF);
+    }
+
+    static void putHeader(ByteBuffer buffer, String name, String value) {
+        byte[] encodedName = NAMES.get(name);
+        if (encodedName != null) {
+            buffer.put(encodedName);
+        } else {
+            putAscii(buffer, name);
+            buffer.put(COLON);
+        }
+        putAscii(buffer, value);
+        buffer.put(CRLF);
+    }
+
+    static void putEnd(ByteBuffer buffer) {
+        buffer.put(CRLF);
+    }
+
+    /**
+     * Puts the characters as ISO-8859-1, replacing the ones outside of it, as header values are not UTF-8.
+     */
+    private static void putAscii(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            buffer.put(c < 256 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void putDecimal(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        if (end > buffer.limit()) {
+            throw new BufferOverflowException();
+        }
+        for (int index = end - 1; index >= buffer.position(); index--) {
+            buffer.put(index, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,456 @@
+package com.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression for HTTP/2 (RFC 7541). The decoder accepts every representation a client may send;
+ * the encoder adds response headers that repeat across streams to its dynamic table, so they shrink to a single
+ * byte, and Huffman codes strings whenever that is shorter.
+ */
+final class Hpack {
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+    private static final int ENTRY_OVERHEAD = 32;
+    private static final int EOS = 256;
+    private static final String[] STATIC_NAMES = {
+            ":authority", ":method", ":method", ":path", ":path", ":scheme", ":scheme", ":status", ":status",
+            ":status", ":status", ":status", ":status", ":status", "accept-charset", "accept-encoding",
+            "accept-language", "accept-ranges", "accept", "access-control-allow-origin", "age", "allow",
+            "authorization", "cache-control", "content-disposition", "content-encoding", "content-language",
+            "content-length", "content-location", "content-range", "content-type", "cookie", "date", "etag",
+            "expect", "expires", "from", "host", "if-match", "if-modified-since", "if-none-match", "if-range",
+            "if-unmodified-since", "last-modified", "link", "location", "max-forwards", "proxy-authenticate",
+            "proxy-authorization", "range", "referer", "refresh", "retry-after", "server", "set-cookie",
+            "strict-transport-security", "transfer-encoding", "user-agent", "vary", "via", "www-authenticate"
+    };
+    private static final String[] STATIC_VALUES = new String[STATIC_NAMES.length];
+    private static final Map<String, Integer> STATIC_INDEX = new HashMap<>();
+
+    // Huffman codes of the octets, right aligned, and their lengths in bits (RFC 7541, Appendix B)
+    private static final int[] CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+    };
+    private static final byte[] LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+    };
+    // Decoding tree, two slots per node: a positive child is a node, a negative one the complement of a symbol
+    private static final int[] TREE = new int[2 * (EOS + 1)];
+
+    static {
+        Arrays.fill(STATIC_VALUES, "");
+        STATIC_VALUES[1] = "GET";
+        STATIC_VALUES[2] = "POST";
+        STATIC_VALUES[3] = "/";
+        STATIC_VALUES[4] = "/index.html";
+        STATIC_VALUES[5] = "http";
+        STATIC_VALUES[6] = "https";
+        String[] statuses = {"200", "204", "206", "304", "400", "404", "500"};
+        System.arraycopy(statuses, 0, STATIC_VALUES, 7, statuses.length);
+        STATIC_VALUES[15] = "gzip, deflate";
+        for (int i = STATIC_NAMES.length - 1; i >= 0; i--) {
+            STATIC_INDEX.put(STATIC_NAMES[i], i + 1);
+        }
+        int nodes = 1;
+        for (int symbol = 0; symbol <= EOS; symbol++) {
+            int code = symbol == EOS ? 0x3fffffff : CODES[symbol];
+            int length = symbol == EOS ? 30 : LENGTHS[symbol];
+            int node = 0;
+            for (int bit = length - 1; bit > 0; bit--) {
+                int slot = 2 * node + (code >>> bit & 1);
+                if (TREE[slot] == 0) {
+                    TREE[slot] = nodes++;
+                }
+                node = TREE[slot];
+            }
+            TREE[2 * node + (code & 1)] = ~symbol;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * Decodes the header blocks of one connection, whose dynamic table lives as long as the connection.
+     */
+    static final class Decoder {
+
+        private final Table table = new Table(DEFAULT_TABLE_SIZE);
+
+        /**
+         * Decodes a complete header block, adding every field as a name followed by its value.
+         */
+        void decode(ByteBuffer block, List<String> fields) throws Http2Exception {
+            boolean fieldDecoded = false;
+            while (block.hasRemaining()) {
+                int first = block.get() & 0xff;
+                String name;
+                String value;
+                if ((first & 0x80) != 0) {
+                    int index = readInt(block, first, 7);
+                    name = getName(index);
+                    value = getValue(index);
+                } else if ((first & 0x40) != 0) {
+                    int index = readInt(block, first, 6);
+                    name = index == 0 ? readString(block) : getName(index);
+                    value = readString(block);
+                    table.add(name, value);
+                } else if ((first & 0x20) != 0) {
+                    int size = readInt(block, first, 5);
+                    if (fieldDecoded || size > DEFAULT_TABLE_SIZE) {
+                        throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Illegal table size update");
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // Literal without indexing or never indexed, which only matters to intermediaries
+                    int index = readInt(block, first, 4);
+                    name = index == 0 ? readString(block) : getName(index);
+                    value = readString(block);
+                }
+                fieldDecoded = true;
+                fields.add(name);
+                fields.add(value);
+            }
+        }
+
+        private String getName(int index) throws Http2Exception {
+            return index <= STATIC_NAMES.length ? STATIC_NAMES[checkIndex(index) - 1]
+                    : table.getName(checkIndex(index) - STATIC_NAMES.length - 1);
+        }
+
+        private String getValue(int index) throws Http2Exception {
+            return index <= STATIC_NAMES.length ? STATIC_VALUES[checkIndex(index) - 1]
+                    : table.getValue(checkIndex(index) - STATIC_NAMES.length - 1);
+        }
+
+        private int checkIndex(int index) throws Http2Exception {
+            if (index == 0 || index > STATIC_NAMES.length + table.count) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Illegal header index " + index);
+            }
+            return index;
+        }
+
+        private static int readInt(ByteBuffer block, int first, int prefixBits) throws Http2Exception {
+            int max = (1 << prefixBits) - 1;
+            int value = first & max;
+            if (value < max) {
+                return value;
+            }
+            for (int shift = 0; shift <= 21; shift += 7) {
+                if (!block.hasRemaining()) {
+                    break;
+                }
+                int b = block.get() & 0xff;
+                value += (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Truncated or oversized integer");
+        }
+
+        private static String readString(ByteBuffer block) throws Http2Exception {
+            if (!block.hasRemaining()) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Missing string");
+            }
+            int first = block.get() & 0xff;
+            int length = readInt(block, first, 7);
+            if (length > block.remaining()) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Truncated string");
+            }
+            if ((first & 0x80) != 0) {
+                return decodeHuffman(block, length);
+            }
+            byte[] bytes = new byte[length];
+            block.get(bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        private static String decodeHuffman(ByteBuffer block, int length) throws Http2Exception {
+            StringBuilder decoded = new StringBuilder(length * 8 / 5);
+            int node = 0;
+            int depth = 0;
+            boolean ones = true;
+            for (int i = 0; i < length; i++) {
+                int b = block.get() & 0xff;
+                for (int shift = 7; shift >= 0; shift--) {
+                    int bit = b >>> shift & 1;
+                    int child = TREE[2 * node + bit];
+                    if (child < 0) {
+                        if (~child == EOS) {
+                            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "EOS in Huffman string");
+                        }
+                        decoded.append((char) ~child);
+                        node = 0;
+                        depth = 0;
+                        ones = true;
+                    } else {
+                        node = child;
+                        depth++;
+                        ones &= bit == 1;
+                    }
+                }
+            }
+            // Only a prefix of EOS, shorter than an octet, may pad the last symbol
+            if (depth > 7 || !ones) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Illegal Huffman padding");
+            }
+            return decoded.toString();
+        }
+    }
+
+    /**
+     * Encodes the header blocks of one connection into a reusable buffer.
+     */
+    static final class Encoder {
+
+        private final Table table = new Table(DEFAULT_TABLE_SIZE);
+        private byte[] block = new byte[256];
+        private int length;
+        private int smallestSize = -1;
+
+        /**
+         * Follows the table size allowed by the peer's settings, announced at the start of the next block.
+         */
+        void setMaxTableSize(int size) {
+            int limit = Math.min(size, DEFAULT_TABLE_SIZE);
+            if (limit != table.maxSize) {
+                smallestSize = smallestSize == -1 ? limit : Math.min(smallestSize, limit);
+                table.setMaxSize(limit);
+            }
+        }
+
+        /**
+         * Starts a new header block, discarding the previous one.
+         */
+        void begin() {
+            length = 0;
+            if (smallestSize != -1) {
+                putInt(0x20, 5, smallestSize);
+                if (smallestSize != table.maxSize) {
+                    putInt(0x20, 5, table.maxSize);
+                }
+                smallestSize = -1;
+            }
+        }
+
+        /**
+         * @param name a lower case name
+         * @param indexed whether the field is likely to repeat and worth a place in the dynamic table
+         */
+        void encode(String name, String value, boolean indexed) {
+            int nameIndex = 0;
+            Integer first = STATIC_INDEX.get(name);
+            if (first != null) {
+                nameIndex = first;
+                for (int i = first - 1; i < STATIC_NAMES.length && STATIC_NAMES[i].equals(name); i++) {
+                    if (STATIC_VALUES[i].equals(value)) {
+                        putInt(0x80, 7, i + 1);
+                        return;
+                    }
+                }
+            }
+            for (int i = 0; i < table.count; i++) {
+                if (table.getName(i).equals(name)) {
+                    if (table.getValue(i).equals(value)) {
+                        putInt(0x80, 7, STATIC_NAMES.length + 1 + i);
+                        return;
+                    }
+                    if (nameIndex == 0) {
+                        nameIndex = STATIC_NAMES.length + 1 + i;
+                    }
+                }
+            }
+            if (indexed) {
+                putInt(0x40, 6, nameIndex);
+            } else {
+                putInt(0x00, 4, nameIndex);
+            }
+            if (nameIndex == 0) {
+                putString(name);
+            }
+            putString(value);
+            if (indexed) {
+                table.add(name, value);
+            }
+        }
+
+        /**
+         * @return the encoded block, valid until the next call to {@link #begin()}
+         */
+        ByteBuffer getBlock() {
+            return ByteBuffer.wrap(block, 0, length);
+        }
+
+        private void putInt(int prefix, int prefixBits, int value) {
+            ensure(6);
+            int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                block[length++] = (byte) (prefix | value);
+                return;
+            }
+            block[length++] = (byte) (prefix | max);
+            value -= max;
+            while (value >= 0x80) {
+                block[length++] = (byte) (value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            block[length++] = (byte) value;
+        }
+
+        private void putString(String value) {
+            long bits = 0;
+            for (int i = 0; i < value.length(); i++) {
+                bits += LENGTHS[value.charAt(i) & 0xff];
+            }
+            int huffmanLength = (int) ((bits + 7) / 8);
+            if (huffmanLength >= value.length()) {
+                putInt(0x00, 7, value.length());
+                ensure(value.length());
+                for (int i = 0; i < value.length(); i++) {
+                    block[length++] = (byte) value.charAt(i);
+                }
+                return;
+            }
+            putInt(0x80, 7, huffmanLength);
+            ensure(huffmanLength);
+            long pending = 0;
+            int pendingBits = 0;
+            for (int i = 0; i < value.length(); i++) {
+                int symbol = value.charAt(i) & 0xff;
+                pending = pending << LENGTHS[symbol] | CODES[symbol];
+                pendingBits += LENGTHS[symbol];
+                while (pendingBits >= 8) {
+                    pendingBits -= 8;
+                    block[length++] = (byte) (pending >>> pendingBits);
+                }
+            }
+            if (pendingBits > 0) {
+                // Padded with the most significant bits of EOS, which are all ones
+                block[length++] = (byte) (pending << 8 - pendingBits | 0xff >>> pendingBits);
+            }
+        }
+
+        private void ensure(int count) {
+            if (length + count > block.length) {
+                block = Arrays.copyOf(block, Math.max(block.length * 2, length + count));
+            }
+        }
+    }
+
+    /**
+     * The dynamic table, a ring of entries with the newest at index 0, evicting the oldest to stay under its
+     * maximum size.
+     */
+    private static final class Table {
+
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int newest;
+        private int count;
+        private int size;
+        private int maxSize;
+
+        Table(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        String getName(int index) {
+            return names[(newest + index) % names.length];
+        }
+
+        String getValue(int index) {
+            return values[(newest + index) % names.length];
+        }
+
+        void add(String name, String value) {
+            int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+            evict(maxSize - entrySize);
+            if (entrySize > maxSize) {
+                return;
+            }
+            if (count == names.length) {
+                String[] grownNames = new String[names.length * 2];
+                String[] grownValues = new String[names.length * 2];
+                for (int i = 0; i < count; i++) {
+                    grownNames[i] = getName(i);
+                    grownValues[i] = getValue(i);
+                }
+                names = grownNames;
+                values = grownValues;
+                newest = 0;
+            }
+            newest = (newest - 1 + names.length) % names.length;
+            names[newest] = name;
+            values[newest] = value;
+            count++;
+            size += entrySize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int limit) {
+            while (count > 0 && size > limit) {
+                int oldest = (newest + count - 1) % names.length;
+                size -= names[oldest].length() + values[oldest].length() + ENTRY_OVERHEAD;
+                names[oldest] = null;
+                values[oldest] = null;
+                count--;
+            }
+        }
+    }
+}
@@ -0,0 +1,1166 @@
+package com.server;
+
+import com.util.HttpHeaders;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.server.MyServer.log;
+
+/**
+ * One HTTP/2 connection (RFC 9113), multiplexing concurrent streams over the socket of a {@link NioConnection}.
+ * Frames are parsed as they arrive and a request is handed to the {@link RequestProcessor} once its stream is
+ * complete, so the routing is the same as for HTTP/1.1. Responses are interleaved a DATA frame at a time within
+ * the flow control windows of the client, request bodies are consumed right away and their window replenished.
+ * Server push is not supported and priorities are ignored.
+ */
+class Http2Connection {
+
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\nUpgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final String H2C = "h2c";
+    private static final String HTTP2_SETTINGS = "HTTP2-Settings";
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int DEFAULT_FRAME_SIZE = 16384;
+    private static final int MAX_FRAME_SIZE = (1 << 24) - 1;
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int MAX_HEADER_BLOCK_SIZE = 65536;
+    private static final int MAX_HEADERS = 100;
+    private static final int MAX_BUFFERED_BODY_SIZE = 1 << 20;
+    private static final int OUTPUT_BUFFER_SIZE = 65536;
+    private static final int MAX_OUTPUT_BUFFER_SIZE = 1 << 20;
+    private static final int MAX_RESET_STREAMS = 128;
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private final ByteChannel channel;
+    private final InetAddress client;
+    private final RequestProcessor processor;
+    private final Runnable fileReady;
+    private final int maxConcurrentStreams;
+    private final int initialWindowSize;
+    private final int connectionWindowSize;
+    private final Hpack.Decoder decoder = new Hpack.Decoder();
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final Map<Integer, Stream> streams = new HashMap<>();
+    private final ArrayDeque<Stream> sending = new ArrayDeque<>();
+    private final ArrayDeque<Integer> resetStreams = new ArrayDeque<>();
+    private final ArrayDeque<Stream> waitingBodies = new ArrayDeque<>();
+    private final FrameBody frameBody = new FrameBody();
+    private final byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+    private final byte[] payload = new byte[DEFAULT_FRAME_SIZE];
+    private final BufferPool buffers;
+    private ByteBuffer out;
+    private int prefaceRead;
+    private int frameHeaderRead;
+    private int payloadRead;
+    private boolean settingsReceived;
+    private byte[] headerBlock = new byte[DEFAULT_FRAME_SIZE];
+    private int headerBlockLength;
+    private int continuationStream;
+    private boolean continuationEndStream;
+    private int lastStreamId;
+    private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int peerMaxFrameSize = DEFAULT_FRAME_SIZE;
+    private long sendWindow = DEFAULT_WINDOW_SIZE;
+    private int connectionConsumed;
+    private boolean goAwaySent;
+    private boolean failed;
+
+    private Http2Connection(ByteChannel channel, InetAddress client, RequestProcessor processor,
+                            ServerSettings settings, BufferPool buffers, Runnable fileReady) {
+        this.channel = channel;
+        this.client = client;
+        this.processor = processor;
+        this.buffers = buffers;
+        this.out = buffers.lease(OUTPUT_BUFFER_SIZE);
+        this.fileReady = fileReady;
+        this.maxConcurrentStreams = settings.getHttp2MaxConcurrentStreams();
+        this.initialWindowSize = settings.getHttp2InitialWindowSize();
+        this.connectionWindowSize = Math.max(initialWindowSize, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Starts a connection whose client opened it with the connection preface, either knowing the server speaks
+     * HTTP/2 or after choosing h2 with ALPN.
+     *
+     * @param fileReady called from any thread when a response that waited for its file can be written again, or
+     *                  a request body that waited for the disk can be taken again
+     */
+    static Http2Connection create(ByteChannel channel, InetAddress client, RequestProcessor processor,
+                                  ServerSettings settings, BufferPool buffers, Runnable fileReady)
+            throws Http2Exception {
+        Http2Connection connection = new Http2Connection(channel, client, processor, settings, buffers, fileReady);
+        connection.writeServerPreface();
+        return connection;
+    }
+
+    /**
+     * Switches an HTTP/1.1 connection to h2c and answers the request that asked for it on stream 1. The client
+     * still sends the connection preface before its first frame.
+     *
+     * @param request a complete request accepted by {@link #isUpgrade(HttpRequest)}
+     * @param requestStart time the first byte of the request arrived
+     */
+    static Http2Connection upgrade(ByteChannel channel, InetAddress client, RequestProcessor processor,
+                                   ServerSettings settings, BufferPool buffers, Runnable fileReady,
+                                   HttpRequest request, long requestStart) throws Http2Exception {
+        byte[] peerSettings;
+        try {
+            peerSettings = Base64.getUrlDecoder().decode(request.getHeader(HTTP2_SETTINGS).trim());
+        } catch (IllegalArgumentException exception) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Illegal " + HTTP2_SETTINGS + " header");
+        }
+        Http2Connection connection = new Http2Connection(channel, client, processor, settings, buffers, fileReady);
+        try {
+            connection.out.put(SWITCHING_PROTOCOLS);
+            connection.applySettings(ByteBuffer.wrap(peerSettings));
+            connection.writeServerPreface();
+        } catch (Http2Exception exception) {
+            buffers.release(connection.out);
+            throw exception;
+        }
+        Stream stream = connection.openStream(1, request, requestStart);
+        stream.remoteClosed = true;
+        connection.dispatch(stream);
+        return connection;
+    }
+
+    /**
+     * @return true if the bytes in the buffer are the start of the client connection preface, or all of it
+     */
+    static boolean matchesPreface(ByteBuffer buffer) {
+        int count = Math.min(buffer.remaining(), PREFACE.length);
+        for (int i = 0; i < count; i++) {
+            if (buffer.get(buffer.position() + i) != PREFACE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the request asks to continue the connection as h2c
+     */
+    static boolean isUpgrade(HttpRequest request) {
+        return HttpRequest.HTTP_1_1.equals(request.getVersion())
+                && hasToken(request.getHeader(HttpHeaders.UPGRADE), H2C)
+                && hasToken(request.getHeader(HttpHeaders.CONNECTION), HttpHeaders.UPGRADE)
+                && hasToken(request.getHeader(HttpHeaders.CONNECTION), HTTP2_SETTINGS)
+                && request.getHeader(HTTP2_SETTINGS) != null;
+    }
+
+    private static boolean hasToken(String header, String token) {
+        if (header != null) {
+            for (String candidate : header.split(",")) {
+                if (candidate.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consumes every byte of the buffer, answering the requests completed on the way. A connection error queues
+     * GOAWAY and ends the connection once it is written, see {@link #isFinished()}.
+     */
+    void onInput(ByteBuffer buffer) throws IOException {
+        while (!failed && buffer.hasRemaining()) {
+            if (prefaceRead < PREFACE.length) {
+                if (buffer.get() != PREFACE[prefaceRead++]) {
+                    fail(new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface"));
+                }
+                continue;
+            }
+            if (frameHeaderRead < FRAME_HEADER_LENGTH) {
+                int count = Math.min(FRAME_HEADER_LENGTH - frameHeaderRead, buffer.remaining());
+                buffer.get(frameHeader, frameHeaderRead, count);
+                frameHeaderRead += count;
+                if (frameHeaderRead < FRAME_HEADER_LENGTH) {
+                    return;
+                }
+                if (getFrameLength() > DEFAULT_FRAME_SIZE) {
+                    fail(new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame larger than "
+                            + DEFAULT_FRAME_SIZE + " bytes"));
+                    return;
+                }
+            }
+            int length = getFrameLength();
+            int count = Math.min(length - payloadRead, buffer.remaining());
+            buffer.get(payload, payloadRead, count);
+            payloadRead += count;
+            if (payloadRead < length) {
+                return;
+            }
+            frameHeaderRead = 0;
+            payloadRead = 0;
+            int streamId = (frameHeader[5] & 0x7f) << 24 | (frameHeader[6] & 0xff) << 16
+                    | (frameHeader[7] & 0xff) << 8 | frameHeader[8] & 0xff;
+            try {
+                onFrame(frameHeader[3] & 0xff, frameHeader[4] & 0xff, streamId, length);
+            } catch (Http2Exception exception) {
+                if (exception.isConnectionError()) {
+                    fail(exception);
+                } else {
+                    log.fine("Resetting stream " + exception.getStreamId() + ": " + exception.getMessage());
+                    resetStream(exception.getStreamId(), exception.getErrorCode());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the queued frames followed by response frames, as far as the flow control windows and the socket
+     * allow.
+     *
+     * @return true if nothing is left to write until more input arrives
+     */
+    boolean write() throws IOException {
+        try {
+            resumeBodies();
+        } catch (Http2Exception exception) {
+            fail(exception);
+        }
+        while (true) {
+            // A full buffer holds frames off until it has been sent, so only an empty one means nothing is left
+            boolean produced = !failed && writeStreams();
+            if (!produced && out.position() == 0) {
+                return true;
+            }
+            out.flip();
+            try {
+                channel.write(out);
+            } finally {
+                out.compact();
+            }
+            if (out.position() > 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return true once the connection has failed or has been told to go away and its last stream is done
+     */
+    boolean isFinished() {
+        return failed || goAwaySent && streams.isEmpty();
+    }
+
+    boolean hasOpenStreams() {
+        return !streams.isEmpty() || continuationStream != 0;
+    }
+
+    /**
+     * Tells the client no new streams will be served, the open ones are still answered.
+     */
+    void goAway() {
+        writeGoAway(Http2Exception.NO_ERROR);
+    }
+
+    /**
+     * Sends GOAWAY if the socket takes it right away and releases the open streams and the output buffer.
+     */
+    void close() {
+        if (!goAwaySent) {
+            writeGoAway(Http2Exception.NO_ERROR);
+            out.flip();
+            try {
+                channel.write(out);
+            } catch (IOException exception) {
+                log.fine("Cannot send GOAWAY: " + exception);
+            }
+            out.compact();
+        }
+        for (Stream stream : streams.values()) {
+            stream.release();
+        }
+        streams.clear();
+        sending.clear();
+        waitingBodies.clear();
+        buffers.release(out);
+    }
+
+    private int getFrameLength() {
+        return (frameHeader[0] & 0xff) << 16 | (frameHeader[1] & 0xff) << 8 | frameHeader[2] & 0xff;
+    }
+
+    private void onFrame(int type, int flags, int streamId, int length) throws IOException {
+        if (continuationStream != 0 && (type != CONTINUATION || streamId != continuationStream)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Expected CONTINUATION");
+        }
+        if (!settingsReceived && type != SETTINGS) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Expected SETTINGS after the preface");
+        }
+        switch (type) {
+            case DATA:
+                onData(flags, requireStream(streamId), length);
+                break;
+            case HEADERS:
+                onHeaders(flags, requireStream(streamId), length);
+                break;
+            case PRIORITY:
+                requireLength(length, 5, streamId);
+                requireStream(streamId);
+                break;
+            case RST_STREAM:
+                requireLength(length, 4, 0);
+                onResetStream(requireStream(streamId));
+                break;
+            case SETTINGS:
+                onSettings(flags, streamId, length);
+                break;
+            case PUSH_PROMISE:
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Clients cannot push");
+            case PING:
+                requireLength(length, 8, 0);
+                if (streamId != 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PING on a stream");
+                }
+                if ((flags & FLAG_ACK) == 0) {
+                    writePingAck();
+                }
+                break;
+            case GOAWAY:
+                if (streamId != 0 || length < 8) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Malformed GOAWAY");
+                }
+                writeGoAway(Http2Exception.NO_ERROR);
+                break;
+            case WINDOW_UPDATE:
+                requireLength(length, 4, 0);
+                onWindowUpdate(streamId);
+                break;
+            case CONTINUATION:
+                if (continuationStream == 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                }
+                appendHeaderBlock(0, length);
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    continuationStream = 0;
+                    onHeaderBlock(streamId, continuationEndStream);
+                }
+                break;
+            default:
+                // Unknown frame types are ignored
+                break;
+        }
+    }
+
+    private void onData(int flags, int streamId, int length) throws IOException {
+        int padding = getPadding(flags, length);
+        int offset = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            // Already reset or answered, the client may not know yet
+            consumed(null, length);
+            return;
+        }
+        if (stream.remoteClosed) {
+            consumed(null, length);
+            throw new Http2Exception(Http2Exception.STREAM_CLOSED, streamId, "DATA after end of stream");
+        }
+        stream.receiveWindow -= length;
+        if (stream.receiveWindow < 0) {
+            consumed(null, length);
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window exceeded");
+        }
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.remoteClosed = true;
+        }
+        int bodyLength = length - offset - padding;
+        // Padding is consumed right away, the body once the sink has taken it
+        consumed(stream, length - bodyLength + stream.write(payload, offset, bodyLength));
+        if (stream.hasPending()) {
+            waitForBody(stream);
+        }
+        dispatchIfComplete(stream);
+    }
+
+    private void onHeaders(int flags, int streamId, int length) throws Http2Exception {
+        int padding = getPadding(flags, length);
+        int offset = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+        if (offset + padding > length) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS shorter than its padding");
+        }
+        headerBlockLength = 0;
+        appendHeaderBlock(offset, length - offset - padding);
+        if ((flags & FLAG_END_HEADERS) == 0) {
+            continuationStream = streamId;
+            continuationEndStream = (flags & FLAG_END_STREAM) != 0;
+        } else {
+            onHeaderBlock(streamId, (flags & FLAG_END_STREAM) != 0);
+        }
+    }
+
+    private void onHeaderBlock(int streamId, boolean endStream) throws Http2Exception {
+        List<String> fields = new ArrayList<>();
+        // Decoded even when the stream is refused, the dynamic table has to stay in sync with the client's
+        decoder.decode(ByteBuffer.wrap(headerBlock, 0, headerBlockLength), fields);
+        Stream stream = streams.get(streamId);
+        if (stream != null || streamId <= lastStreamId) {
+            if (stream == null) {
+                if (resetStreams.contains(streamId)) {
+                    // Sent before the client saw the reset
+                    return;
+                }
+                throw new Http2Exception(Http2Exception.STREAM_CLOSED, "HEADERS on closed stream " + streamId);
+            }
+            if (stream.remoteClosed || !endStream) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "HEADERS in the middle of a body");
+            }
+            // Trailers, which nothing here uses
+            stream.remoteClosed = true;
+            dispatchIfComplete(stream);
+            return;
+        }
+        if ((streamId & 1) == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Even stream id " + streamId + " from client");
+        }
+        lastStreamId = streamId;
+        if (goAwaySent) {
+            rememberReset(streamId);
+            return;
+        }
+        if (streams.size() >= maxConcurrentStreams) {
+            throw new Http2Exception(Http2Exception.REFUSED_STREAM, streamId, "Too many concurrent streams");
+        }
+        stream = openStream(streamId, createRequest(streamId, fields), System.nanoTime());
+        if (fields.size() / 2 > MAX_HEADERS) {
+            stream.failure = new HttpParseException(431, "More than " + MAX_HEADERS + " headers");
+        } else {
+            try {
+                stream.sink = processor.create(stream.request);
+            } catch (IOException exception) {
+                stream.failure = exception;
+            }
+        }
+        if (endStream) {
+            stream.remoteClosed = true;
+            dispatch(stream);
+        }
+    }
+
+    private static HttpRequest createRequest(int streamId, List<String> fields) throws Http2Exception {
+        String method = null;
+        String path = null;
+        String authority = null;
+        int regular = fields.size();
+        for (int i = 0; i < fields.size(); i += 2) {
+            String name = fields.get(i);
+            if (!name.startsWith(":")) {
+                regular = Math.min(regular, i);
+                continue;
+            }
+            if (i > regular) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Pseudo-header after headers");
+            }
+            switch (name) {
+                case ":method":
+                    method = fields.get(i + 1);
+                    break;
+                case ":path":
+                    path = fields.get(i + 1);
+                    break;
+                case ":authority":
+                    authority = fields.get(i + 1);
+                    break;
+                case ":scheme":
+                    break;
+                default:
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Unknown " + name);
+            }
+        }
+        if (method == null || path == null || path.isEmpty()) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Missing :method or :path");
+        }
+        HttpRequest request = new HttpRequest(method, path, HttpRequest.HTTP_2);
+        if (authority != null) {
+            request.addHeader(HttpHeaders.HOST, authority);
+        }
+        for (int i = regular; i < fields.size(); i += 2) {
+            request.addHeader(fields.get(i), fields.get(i + 1));
+        }
+        return request;
+    }
+
+    private void onResetStream(int streamId) throws Http2Exception {
+        if (streamId > lastStreamId) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+        }
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            sending.remove(stream);
+            stream.release();
+            consumed(null, stream.discardPending());
+        }
+    }
+
+    private void onSettings(int flags, int streamId, int length) throws Http2Exception {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (length != 0) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+            }
+            return;
+        }
+        if (length % 6 != 0) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS length " + length);
+        }
+        applySettings(ByteBuffer.wrap(payload, 0, length));
+        settingsReceived = true;
+        makeRoom(FRAME_HEADER_LENGTH);
+        putFrameHeader(0, SETTINGS, FLAG_ACK, 0);
+    }
+
+    private void applySettings(ByteBuffer settings) throws Http2Exception {
+        while (settings.remaining() >= 6) {
+            int id = settings.getShort() & 0xffff;
+            int value = settings.getInt();
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value != 0 && value != 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Illegal ENABLE_PUSH " + value);
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Illegal window size");
+                    }
+                    for (Stream stream : streams.values()) {
+                        stream.sendWindow += value - peerInitialWindowSize;
+                        if (stream.sendWindow > Integer.MAX_VALUE) {
+                            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Window overflow");
+                        }
+                    }
+                    peerInitialWindowSize = value;
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_FRAME_SIZE || value > MAX_FRAME_SIZE) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Illegal MAX_FRAME_SIZE " + value);
+                    }
+                    peerMaxFrameSize = value;
+                    break;
+                default:
+                    // Settings the server does not act on, or unknown ones, which are ignored
+                    break;
+            }
+        }
+    }
+
+    private void onWindowUpdate(int streamId) throws Http2Exception {
+        int increment = ByteBuffer.wrap(payload, 0, 4).getInt() & 0x7fffffff;
+        if (increment == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Zero window increment");
+        }
+        if (streamId == 0) {
+            sendWindow += increment;
+            if (sendWindow > Integer.MAX_VALUE) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+            }
+            return;
+        }
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE on idle stream");
+            }
+            return;
+        }
+        stream.sendWindow += increment;
+        if (stream.sendWindow > Integer.MAX_VALUE) {
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+        }
+    }
+
+    private Stream openStream(int streamId, HttpRequest request, long requestStart) {
+        Stream stream = new Stream(streamId, request, requestStart, peerInitialWindowSize, initialWindowSize);
+        streams.put(streamId, stream);
+        lastStreamId = Math.max(lastStreamId, streamId);
+        return stream;
+    }
+
+    /**
+     * Answers the stream once the sink has taken all of its body, or right away if it failed while it was
+     * received, discarding the rest of the body.
+     */
+    private void dispatchIfComplete(Stream stream) {
+        if (!stream.dispatched && (stream.failure != null || stream.remoteClosed && !stream.hasPending())) {
+            dispatch(stream);
+        }
+    }
+
+    private void waitForBody(Stream stream) {
+        if (!stream.waitingForSink) {
+            stream.waitingForSink = true;
+            waitingBodies.add(stream);
+            stream.sink.whenReady(fileReady);
+        }
+    }
+
+    /**
+     * Hands the sinks that can take bytes again what they have not taken yet, giving back the window for it.
+     */
+    private void resumeBodies() throws Http2Exception {
+        for (int i = waitingBodies.size(); i > 0; i--) {
+            Stream stream = waitingBodies.poll();
+            stream.waitingForSink = false;
+            if (streams.get(stream.id) != stream) {
+                continue;
+            }
+            consumed(stream, stream.resume());
+            if (stream.hasPending()) {
+                waitForBody(stream);
+            } else {
+                dispatchIfComplete(stream);
+            }
+        }
+    }
+
+    /**
+     * Answers a stream whose request is complete, or that failed while it was received.
+     */
+    private void dispatch(Stream stream) {
+        stream.dispatched = true;
+        HttpResponse response;
+        if (stream.failure == null) {
+            stream.complete();
+        }
+        if (stream.failure != null) {
+            response = processor.error(stream.failure);
+        } else {
+            // Streams are cheap, so only a stopping server ends the connection after a response
+            response = processor.process(stream.request, 0);
+            if (!response.isKeepAlive()) {
+                goAway();
+            }
+        }
+        stream.response = response;
+        sending.add(stream);
+    }
+
+    /**
+     * Sends one frame for each stream with a response in turn, until the output buffer is full or every stream
+     * waits for its window.
+     *
+     * @return true if any frame was added
+     */
+    private boolean writeStreams() throws IOException {
+        boolean written = false;
+        boolean progress = true;
+        while (progress && !sending.isEmpty()) {
+            progress = false;
+            for (int i = sending.size(); i > 0; i--) {
+                Stream stream = sending.poll();
+                progress |= writeFrame(stream);
+                if (stream.response != null) {
+                    sending.add(stream);
+                }
+            }
+            written |= progress;
+        }
+        return written;
+    }
+
+    private boolean writeFrame(Stream stream) throws IOException {
+        HttpResponse response = stream.response;
+        if (!stream.headersSent) {
+            return writeHeaders(stream);
+        }
+        int limit = (int) Math.min(Math.min(peerMaxFrameSize, stream.sendWindow),
+                Math.min(sendWindow, out.remaining() - FRAME_HEADER_LENGTH));
+        if (limit <= 0) {
+            return false;
+        }
+        int start = out.position();
+        out.position(start + FRAME_HEADER_LENGTH);
+        out.limit(start + FRAME_HEADER_LENGTH + limit);
+        boolean done;
+        try {
+            done = response.writeBodyTo(frameBody);
+        } catch (IOException exception) {
+            log.info(exception.toString());
+            out.limit(out.capacity());
+            out.position(start);
+            resetStream(stream.id, Http2Exception.INTERNAL_ERROR);
+            return true;
+        } finally {
+            out.limit(out.capacity());
+        }
+        int length = out.position() - start - FRAME_HEADER_LENGTH;
+        if (length == 0 && !done) {
+            out.position(start);
+            if (response.isWaitingForFile()) {
+                response.whenFileReady(fileReady);
+            }
+            return false;
+        }
+        int end = out.position();
+        out.position(start);
+        putFrameHeader(length, DATA, done ? FLAG_END_STREAM : 0, stream.id);
+        out.position(end);
+        stream.sendWindow -= length;
+        sendWindow -= length;
+        if (done) {
+            finish(stream);
+        }
+        return true;
+    }
+
+    private boolean writeHeaders(Stream stream) throws Http2Exception {
+        HttpResponse response = stream.response;
+        byte[] headers = response.getEntityHeaderBytes();
+        // The encoder updates its dynamic table, so the block has to go out once encoded. It is only encoded when
+        // the buffer has room for the largest block the headers can give, a literal field for every line, or
+        // when it is empty and grows no larger than the server's own headers need.
+        int maxBlockLength = 2 * headers.length + 16;
+        int needed = maxBlockLength + (maxBlockLength / peerMaxFrameSize + 1) * FRAME_HEADER_LENGTH;
+        if (out.remaining() < needed) {
+            if (out.position() > 0) {
+                return false;
+            }
+            grow(needed);
+        }
+        ByteBuffer block = encodeHeaders(response.getStatus(), headers);
+        boolean endStream = !response.hasBody();
+        int type = HEADERS;
+        do {
+            int length = Math.min(block.remaining(), peerMaxFrameSize);
+            int flags = length == block.remaining() ? FLAG_END_HEADERS : 0;
+            if (type == HEADERS && endStream) {
+                flags |= FLAG_END_STREAM;
+            }
+            putFrameHeader(length, type, flags, stream.id);
+            out.put(block.array(), block.position(), length);
+            block.position(block.position() + length);
+            type = CONTINUATION;
+        } while (block.hasRemaining());
+        stream.headersSent = true;
+        if (endStream) {
+            finish(stream);
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the status and the entity headers of the response, lower cased as HTTP/2 requires. Headers that
+     * differ from response to response are not added to the dynamic table.
+     */
+    private ByteBuffer encodeHeaders(int status, byte[] headers) {
+        encoder.begin();
+        encoder.encode(":status", String.valueOf(status), true);
+        int lineStart = 0;
+        for (int i = 0; i + 1 < headers.length; i++) {
+            if (headers[i] != '\r' || headers[i + 1] != '\n') {
+                continue;
+            }
+            int colon = lineStart;
+            while (colon < i && headers[colon] != ':') {
+                colon++;
+            }
+            if (colon < i) {
+                String name = new String(headers, lineStart, colon - lineStart, StandardCharsets.ISO_8859_1)
+                        .toLowerCase(Locale.ROOT);
+                String value = new String(headers, colon + 1, i - colon - 1, StandardCharsets.ISO_8859_1).trim();
+                encoder.encode(name, value, !name.equals("content-length") && !name.equals("content-range"));
+            }
+            lineStart = i + 2;
+            i++;
+        }
+        return encoder.getBlock();
+    }
+
+    private void finish(Stream stream) throws Http2Exception {
+        processor.completed(client, stream.request, stream.response, System.nanoTime() - stream.start);
+        try {
+            stream.response.close();
+        } catch (IOException exception) {
+            log.info(exception.toString());
+        }
+        stream.response = null;
+        if (!stream.remoteClosed) {
+            // Answered before the body was complete, the client can stop sending it
+            resetStream(stream.id, Http2Exception.NO_ERROR);
+        }
+        streams.remove(stream.id);
+    }
+
+    private void resetStream(int streamId, int errorCode) throws Http2Exception {
+        makeRoom(FRAME_HEADER_LENGTH + 4);
+        putFrameHeader(4, RST_STREAM, 0, streamId);
+        out.putInt(errorCode);
+        rememberReset(streamId);
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            sending.remove(stream);
+            stream.release();
+            consumed(null, stream.discardPending());
+        }
+    }
+
+    private void fail(Http2Exception exception) {
+        log.info(exception.toString());
+        writeGoAway(exception.getErrorCode());
+        failed = true;
+    }
+
+    private void writeServerPreface() throws Http2Exception {
+        makeRoom(FRAME_HEADER_LENGTH + 12 + FRAME_HEADER_LENGTH + 4);
+        putFrameHeader(12, SETTINGS, 0, 0);
+        out.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(maxConcurrentStreams);
+        out.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(initialWindowSize);
+        if (initialWindowSize > DEFAULT_WINDOW_SIZE) {
+            // The connection window starts at the default whatever the settings say
+            writeWindowUpdate(0, initialWindowSize - DEFAULT_WINDOW_SIZE);
+        }
+    }
+
+    /**
+     * Remembers the last few streams the server reset, whose frames the client may have sent before it knew.
+     */
+    private void rememberReset(int streamId) {
+        if (resetStreams.size() == MAX_RESET_STREAMS) {
+            resetStreams.poll();
+        }
+        resetStreams.add(streamId);
+    }
+
+    /**
+     * Gives window back for DATA bytes that have been consumed, in updates of about half the window, so a
+     * client sending small frames does not get a WINDOW_UPDATE for each of them.
+     *
+     * @param stream the stream that took the bytes, or null if they were discarded
+     */
+    private void consumed(Stream stream, int count) throws Http2Exception {
+        connectionConsumed += count;
+        if (connectionConsumed > 0 && connectionConsumed >= connectionWindowSize / 2) {
+            writeWindowUpdate(0, connectionConsumed);
+            connectionConsumed = 0;
+        }
+        if (stream == null || stream.remoteClosed) {
+            return;
+        }
+        stream.consumed += count;
+        if (stream.consumed > 0 && stream.consumed >= initialWindowSize / 2) {
+            stream.receiveWindow += stream.consumed;
+            writeWindowUpdate(stream.id, stream.consumed);
+            stream.consumed = 0;
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws Http2Exception {
+        makeRoom(FRAME_HEADER_LENGTH + 4);
+        putFrameHeader(4, WINDOW_UPDATE, 0, streamId);
+        out.putInt(increment);
+    }
+
+    private void writePingAck() throws Http2Exception {
+        makeRoom(FRAME_HEADER_LENGTH + 8);
+        putFrameHeader(8, PING, FLAG_ACK, 0);
+        out.put(payload, 0, 8);
+    }
+
+    private void writeGoAway(int errorCode) {
+        if (goAwaySent) {
+            return;
+        }
+        goAwaySent = true;
+        try {
+            makeRoom(FRAME_HEADER_LENGTH + 8);
+        } catch (Http2Exception exception) {
+            // The client would not read it either
+            log.fine("Cannot queue GOAWAY: " + exception.getMessage());
+            return;
+        }
+        putFrameHeader(8, GOAWAY, 0, 0);
+        out.putInt(lastStreamId).putInt(errorCode);
+    }
+
+    private void putFrameHeader(int length, int type, int flags, int streamId) {
+        out.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length)
+                .put((byte) type).put((byte) flags).putInt(streamId);
+    }
+
+    /**
+     * Makes room for a control frame. A client that keeps asking for them without reading cannot make the
+     * output buffer grow past a limit.
+     */
+    private void makeRoom(int needed) throws Http2Exception {
+        if (out.position() + needed > MAX_OUTPUT_BUFFER_SIZE) {
+            throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Client does not read its frames");
+        }
+        grow(needed);
+    }
+
+    private void grow(int needed) {
+        if (out.remaining() >= needed) {
+            return;
+        }
+        int size = out.capacity();
+        while (size - out.position() < needed) {
+            size *= 2;
+        }
+        ByteBuffer grown = buffers.lease(size);
+        out.flip();
+        grown.put(out);
+        buffers.release(out);
+        out = grown;
+    }
+
+    private int getPadding(int flags, int length) throws Http2Exception {
+        if ((flags & FLAG_PADDED) == 0) {
+            return 0;
+        }
+        int padding = length == 0 ? -1 : payload[0] & 0xff;
+        if (padding < 0 || padding >= length) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding longer than the frame");
+        }
+        return padding;
+    }
+
+    private void appendHeaderBlock(int offset, int length) throws Http2Exception {
+        if (headerBlockLength + length > MAX_HEADER_BLOCK_SIZE) {
+            throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Header block larger than "
+                    + MAX_HEADER_BLOCK_SIZE + " bytes");
+        }
+        if (headerBlockLength + length > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlock.length * 2, headerBlockLength + length));
+        }
+        System.arraycopy(payload, offset, headerBlock, headerBlockLength, length);
+        headerBlockLength += length;
+    }
+
+    private static int requireStream(int streamId) throws Http2Exception {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Frame needs a stream");
+        }
+        return streamId;
+    }
+
+    private static void requireLength(int length, int expected, int streamId) throws Http2Exception {
+        if (length != expected) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "Frame length " + length);
+        }
+    }
+
+    /**
+     * Copies a response body into the DATA frame being written, up to the limit of the output buffer.
+     */
+    private final class FrameBody implements WritableByteChannel {
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = Math.min(src.remaining(), out.remaining());
+            if (count == src.remaining()) {
+                out.put(src);
+            } else {
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + count);
+                out.put(slice);
+                src.position(src.position() + count);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Stream {
+
+        private final int id;
+        private final HttpRequest request;
+        private final long start;
+        private long sendWindow;
+        private int receiveWindow;
+        private int consumed;
+        private BodySink sink;
+        private ByteBuffer pending;
+        private boolean waitingForSink;
+        private byte[] body;
+        private int bodyLength;
+        private IOException failure;
+        private boolean remoteClosed;
+        private boolean dispatched;
+        private HttpResponse response;
+        private boolean headersSent;
+
+        Stream(int id, HttpRequest request, long start, int sendWindow, int receiveWindow) {
+            this.id = id;
+            this.request = request;
+            this.start = start;
+            this.sendWindow = sendWindow;
+            this.receiveWindow = receiveWindow;
+        }
+
+        /**
+         * Hands body bytes to the sink or buffers them, remembering the first failure instead of throwing, so
+         * the stream can still be answered with an error. Bytes a waiting sink does not take are kept for
+         * {@link #resume()}, the stream window bounds them.
+         *
+         * @return the number of bytes taken or discarded
+         */
+        int write(byte[] bytes, int offset, int length) {
+            if (failure != null || length == 0) {
+                return length;
+            }
+            try {
+                if (sink != null) {
+                    int taken = 0;
+                    if (!hasPending()) {
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+                        sink.write(buffer);
+                        taken = buffer.position() - offset;
+                    }
+                    keep(bytes, offset + taken, length - taken);
+                    return taken;
+                }
+                if (bodyLength + length > MAX_BUFFERED_BODY_SIZE) {
+                    throw new HttpParseException(413, "Body is larger than " + MAX_BUFFERED_BODY_SIZE + " bytes");
+                }
+                if (body == null || bodyLength + length > body.length) {
+                    body = Arrays.copyOf(body == null ? new byte[0] : body,
+                            Math.max(bodyLength + length, Math.min(bodyLength * 2, MAX_BUFFERED_BODY_SIZE)));
+                }
+                System.arraycopy(bytes, offset, body, bodyLength, length);
+                bodyLength += length;
+            } catch (IOException exception) {
+                failure = exception;
+                return length + discardPending();
+            }
+            return length;
+        }
+
+        boolean hasPending() {
+            return pending != null && pending.position() > 0;
+        }
+
+        /**
+         * Hands the kept bytes to the sink, as many as it takes.
+         *
+         * @return the number of bytes taken or discarded
+         */
+        int resume() {
+            if (failure != null || !hasPending()) {
+                return discardPending();
+            }
+            int kept = pending.position();
+            try {
+                pending.flip();
+                sink.write(pending);
+                int taken = pending.position();
+                pending.compact();
+                return taken;
+            } catch (IOException exception) {
+                failure = exception;
+                pending = null;
+                return kept;
+            }
+        }
+
+        private void keep(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return;
+            }
+            if (pending == null || pending.remaining() < length) {
+                int kept = pending == null ? 0 : pending.position();
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(kept + length, kept * 2));
+                if (pending != null) {
+                    pending.flip();
+                    grown.put(pending);
+                }
+                pending = grown;
+            }
+            pending.put(bytes, offset, length);
+        }
+
+        /**
+         * @return the number of bytes discarded
+         */
+        int discardPending() {
+            int kept = pending == null ? 0 : pending.position();
+            pending = null;
+            return kept;
+        }
+
+        void complete() {
+            try {
+                if (sink != null) {
+                    sink.complete();
+                    sink = null;
+                } else if (body != null) {
+                    request.setBody(bodyLength == body.length ? body : Arrays.copyOf(body, bodyLength));
+                }
+            } catch (IOException exception) {
+                failure = exception;
+            }
+        }
+
+        void release() {
+            if (sink != null) {
+                sink.abort();
+                sink = null;
+            }
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException exception) {
+                    log.info(exception.toString());
+                }
+                response = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.server;
+
+import java.io.IOException;
+
+public class HttpParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public HttpParseException(String message) {
+        this(400, message);
+    }
+
+    public HttpParseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,154 @@
+package com.server;
+
+import com.util.HttpHeaders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class HttpRequest {
+
+    public static final String GET = "GET";
+    public static final String HEAD = "HEAD";
+    public static final String POST = "POST";
+    public static final String PUT = "PUT";
+    public static final String DELETE = "DELETE";
+    public static final String OPTIONS = "OPTIONS";
+    public static final String HTTP_1_0 = "HTTP/1.0";
+    public static final String HTTP_1_1 = "HTTP/1.1";
+    public static final String HTTP_2 = "HTTP/2.0";
+
+    private final String method;
+    private final String target;
+    private final String version;
+    private final List<String> headerNames = new ArrayList<>();
+    private final List<String> headerValues = new ArrayList<>();
+    private byte[] body = new byte[0];
+    private Router.Route route;
+    private boolean keepAliveDisabled;
+
+    HttpRequest(String method, String target, String version) {
+        this.method = method;
+        this.target = target;
+        this.version = version;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getPath() {
+        int query = target.indexOf('?');
+        return query == -1 ? target : target.substring(0, query);
+    }
+
+    /**
+     * Returns the first value of a query parameter, without percent-decoding.
+     */
+    public String getQueryParameter(String name) {
+        int start = target.indexOf('?');
+        while (start != -1 && start < target.length()) {
+            int end = target.indexOf('&', start + 1);
+            if (end == -1) {
+                end = target.length();
+            }
+            int nameEnd = start + 1 + name.length();
+            if (nameEnd <= end && target.startsWith(name, start + 1)) {
+                if (nameEnd == end) {
+                    return "";
+                }
+                if (target.charAt(nameEnd) == '=') {
+                    return target.substring(nameEnd + 1, end);
+                }
+            }
+            start = end == target.length() ? -1 : end;
+        }
+        return null;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getHeader(String name) {
+        for (int i = 0; i < headerNames.size(); i++) {
+            if (headerNames.get(i).equalsIgnoreCase(name)) {
+                return headerValues.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the values of every header with the name, in the order they were received
+     */
+    public List<String> getHeaders(String name) {
+        List<String> values = new ArrayList<>(1);
+        for (int i = 0; i < headerNames.size(); i++) {
+            if (headerNames.get(i).equalsIgnoreCase(name)) {
+                values.add(headerValues.get(i));
+            }
+        }
+        return values;
+    }
+
+    public List<String> getHeaderNames() {
+        return Collections.unmodifiableList(headerNames);
+    }
+
+    public boolean isKeepAlive() {
+        if (keepAliveDisabled) {
+            return false;
+        }
+        String connection = getHeader(HttpHeaders.CONNECTION);
+        if (connection != null) {
+            for (String token : connection.split(",")) {
+                String option = token.trim();
+                if (option.equalsIgnoreCase(HttpHeaders.CONNECTION_CLOSE)) {
+                    return false;
+                }
+                if (option.equalsIgnoreCase(HttpHeaders.CONNECTION_KEEP_ALIVE)) {
+                    return true;
+                }
+            }
+        }
+        return HTTP_1_1.equals(version) || HTTP_2.equals(version);
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    void addHeader(String name, String value) {
+        headerNames.add(name);
+        headerValues.add(value);
+    }
+
+    /**
+     * Closes the connection after this request whatever the client asked for.
+     */
+    void disableKeepAlive() {
+        keepAliveDisabled = true;
+    }
+
+    void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    Router.Route getRoute() {
+        return route;
+    }
+
+    void setRoute(Router.Route route) {
+        this.route = route;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + target + " " + version;
+    }
+}
@@ -0,0 +1,392 @@
+package com.server;
+
+import com.util.Ascii;
+import com.util.HttpHeaders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Incremental HTTP/1.x request parser. Bytes are fed as they arrive and everything after a complete request
+ * is left in the buffer, so the same parser can be reused for the next request on the connection.
+ */
+class HttpRequestParser {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final int MAX_BUFFERED_BODY_SIZE = 1 << 20;
+    private static final String CHUNKED = "chunked";
+    private static final String CONTINUE = "100-continue";
+    private static final String[] METHODS = {
+            HttpRequest.GET, HttpRequest.HEAD, HttpRequest.POST, HttpRequest.PUT, HttpRequest.DELETE,
+            HttpRequest.OPTIONS
+    };
+    private static final String[] VERSIONS = {HttpRequest.HTTP_1_1, HttpRequest.HTTP_1_0};
+
+    enum State {
+        REQUEST_LINE,
+        HEADER,
+        BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_DATA_END,
+        TRAILER,
+        COMPLETE
+    }
+
+    private final BodySink.Factory bodySinkFactory;
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private int lineLength;
+    private State state = State.REQUEST_LINE;
+    private HttpRequest request;
+    private int headerCount;
+    private long remaining;
+    private byte[] body;
+    private int bodyLength;
+    private BodySink bodySink;
+    private boolean continueExpected;
+
+    HttpRequestParser(BodySink.Factory bodySinkFactory) {
+        this.bodySinkFactory = bodySinkFactory;
+    }
+
+    /**
+     * Consumes bytes from the buffer until a request is complete, the buffer is exhausted or the body sink has to
+     * wait, see {@link #isWaitingForBody()}.
+     *
+     * @return true when {@link #getRequest()} holds a complete request
+     */
+    boolean parse(ByteBuffer buffer) throws IOException {
+        while (state != State.COMPLETE && buffer.hasRemaining() && !isWaitingForBody()) {
+            switch (state) {
+                case REQUEST_LINE:
+                    if (readLine(buffer) && lineLength != 0) {
+                        parseRequestLine();
+                        state = State.HEADER;
+                    }
+                    break;
+                case HEADER:
+                    if (readLine(buffer)) {
+                        if (lineLength == 0) {
+                            headersComplete();
+                        } else {
+                            parseHeader();
+                        }
+                    }
+                    break;
+                case BODY:
+                    readBody(buffer);
+                    if (remaining == 0) {
+                        complete();
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    if (readLine(buffer)) {
+                        remaining = parseChunkSize();
+                        state = remaining == 0 ? State.TRAILER : State.CHUNK_DATA;
+                    }
+                    break;
+                case CHUNK_DATA:
+                    readBody(buffer);
+                    if (remaining == 0) {
+                        state = State.CHUNK_DATA_END;
+                    }
+                    break;
+                case CHUNK_DATA_END:
+                    if (readLine(buffer)) {
+                        if (lineLength != 0) {
+                            throw new HttpParseException("Missing CRLF after chunk");
+                        }
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILER:
+                    if (readLine(buffer)) {
+                        if (lineLength == 0) {
+                            complete();
+                        }
+                        // Trailer fields are not used
+                        lineLength = 0;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException(state.toString());
+            }
+        }
+        return state == State.COMPLETE;
+    }
+
+    boolean isStarted() {
+        return state != State.REQUEST_LINE || lineLength != 0;
+    }
+
+    /**
+     * @return true if the body sink takes no bytes until {@link #whenBodyReady(Runnable)} tells so, the rest of
+     * the body has to stay in the buffer meanwhile
+     */
+    boolean isWaitingForBody() {
+        return bodySink != null && state != State.COMPLETE && bodySink.isWaiting();
+    }
+
+    /**
+     * Runs the listener, from any thread, once the body sink takes bytes again.
+     */
+    void whenBodyReady(Runnable listener) {
+        bodySink.whenReady(listener);
+    }
+
+    /**
+     * @return true, only once, if the client waits for 100 Continue before sending the body of the request
+     */
+    boolean takeContinueExpected() {
+        boolean expected = continueExpected;
+        continueExpected = false;
+        return expected;
+    }
+
+    HttpRequest getRequest() {
+        return state == State.COMPLETE ? request : null;
+    }
+
+    void reset() {
+        close();
+        state = State.REQUEST_LINE;
+        lineLength = 0;
+        request = null;
+        headerCount = 0;
+        remaining = 0;
+        body = null;
+        bodyLength = 0;
+    }
+
+    /**
+     * Aborts the body sink of an unfinished request.
+     */
+    void close() {
+        if (bodySink != null && state != State.COMPLETE) {
+            bodySink.abort();
+        }
+        bodySink = null;
+        continueExpected = false;
+    }
+
+    private boolean readLine(ByteBuffer buffer) throws HttpParseException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return true;
+            }
+            if (lineLength == MAX_LINE_LENGTH) {
+                throw new HttpParseException("Line is longer than " + MAX_LINE_LENGTH + " bytes");
+            }
+            line[lineLength++] = b;
+        }
+        return false;
+    }
+
+    private void parseRequestLine() throws HttpParseException {
+        int methodEnd = indexOf(' ', 0);
+        int targetEnd = methodEnd == -1 ? -1 : indexOf(' ', methodEnd + 1);
+        if (targetEnd == -1 || methodEnd == 0 || targetEnd == methodEnd + 1) {
+            throw new HttpParseException("Malformed request line");
+        }
+        String method = constant(METHODS, 0, methodEnd);
+        String target = new String(line, methodEnd + 1, targetEnd - methodEnd - 1, StandardCharsets.ISO_8859_1);
+        String version = constant(VERSIONS, targetEnd + 1, lineLength - targetEnd - 1);
+        if (!version.startsWith("HTTP/1.")) {
+            throw new HttpParseException("Unsupported version " + version);
+        }
+        request = new HttpRequest(method, target, version);
+        lineLength = 0;
+    }
+
+    private void parseHeader() throws HttpParseException {
+        if (++headerCount > MAX_HEADERS) {
+            throw new HttpParseException("More than " + MAX_HEADERS + " headers");
+        }
+        int colon = indexOf(':', 0);
+        if (colon <= 0) {
+            throw new HttpParseException("Malformed header");
+        }
+        int valueStart = colon + 1;
+        int valueEnd = lineLength;
+        while (valueStart < valueEnd && isWhitespace(line[valueStart])) {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && isWhitespace(line[valueEnd - 1])) {
+            valueEnd--;
+        }
+        String name = HttpHeaders.getName(line, 0, colon);
+        String value = new String(line, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+        request.addHeader(name, value);
+        lineLength = 0;
+    }
+
+    /**
+     * Decides how the body is framed before anything of it is read. Requests a proxy in front could frame
+     * differently are rejected, so their body can never be taken for the next request on the connection.
+     */
+    private void headersComplete() throws IOException {
+        lineLength = 0;
+        List<String> transferEncodings = request.getHeaders(HttpHeaders.TRANSFER_ENCODING);
+        List<String> contentLengths = request.getHeaders(HttpHeaders.CONTENT_LENGTH);
+        if (contentLengths.size() > 1) {
+            throw new HttpParseException("Duplicate " + HttpHeaders.CONTENT_LENGTH);
+        }
+        boolean chunked = !transferEncodings.isEmpty();
+        if (chunked) {
+            checkTransferEncoding(transferEncodings);
+            if (!contentLengths.isEmpty()) {
+                // Transfer-Encoding wins, but whoever sent both may be smuggling, so the connection ends here
+                request.disableKeepAlive();
+            }
+        } else if (!contentLengths.isEmpty()) {
+            remaining = parseContentLength(contentLengths.get(0));
+        }
+        bodySink = bodySinkFactory.create(request);
+        if (chunked) {
+            body = bodySink == null ? new byte[MAX_LINE_LENGTH] : null;
+            state = State.CHUNK_SIZE;
+        } else if (!contentLengths.isEmpty()) {
+            if (bodySink == null) {
+                checkBufferedBodySize(remaining);
+                body = new byte[(int) remaining];
+            }
+            if (remaining == 0) {
+                complete();
+            } else {
+                state = State.BODY;
+            }
+        } else {
+            complete();
+        }
+        String expect = request.getHeader(HttpHeaders.EXPECT);
+        continueExpected = state != State.COMPLETE && HttpRequest.HTTP_1_1.equals(request.getVersion())
+                && expect != null && expect.equalsIgnoreCase(CONTINUE);
+    }
+
+    /**
+     * Accepts only chunked as the final coding, the only one the parser can find the end of, and no other
+     * coding before it, since none is decoded.
+     */
+    private static void checkTransferEncoding(List<String> values) throws HttpParseException {
+        List<String> codings = new ArrayList<>(1);
+        for (String value : values) {
+            for (String coding : value.split(",")) {
+                if (!coding.trim().isEmpty()) {
+                    codings.add(coding.trim());
+                }
+            }
+        }
+        if (codings.isEmpty() || !codings.get(codings.size() - 1).equalsIgnoreCase(CHUNKED)) {
+            throw new HttpParseException("Illegal " + HttpHeaders.TRANSFER_ENCODING + " " + values);
+        }
+        for (int i = 0; i < codings.size() - 1; i++) {
+            if (codings.get(i).equalsIgnoreCase(CHUNKED)) {
+                throw new HttpParseException("Chunked applied more than once");
+            }
+        }
+        if (codings.size() > 1) {
+            throw new HttpParseException(501, "Unsupported transfer coding " + codings.get(0));
+        }
+    }
+
+    private static long parseContentLength(String value) throws HttpParseException {
+        // Digits only, Long.parseLong would also take a sign
+        if (value.isEmpty() || value.length() > 18) {
+            throw new HttpParseException("Illegal " + HttpHeaders.CONTENT_LENGTH + " " + value);
+        }
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new HttpParseException("Illegal " + HttpHeaders.CONTENT_LENGTH + " " + value);
+            }
+            length = length * 10 + c - '0';
+        }
+        return length;
+    }
+
+    private long parseChunkSize() throws HttpParseException {
+        int end = indexOf(';', 0);
+        if (end == -1) {
+            end = lineLength;
+        }
+        while (end > 0 && isWhitespace(line[end - 1])) {
+            end--;
+        }
+        try {
+            long size = Ascii.parseLong(line, 0, end, 16);
+            lineLength = 0;
+            return size;
+        } catch (NumberFormatException exception) {
+            throw new HttpParseException("Illegal chunk size");
+        }
+    }
+
+    private void readBody(ByteBuffer buffer) throws IOException {
+        int count = (int) Math.min(remaining, buffer.remaining());
+        if (bodySink != null) {
+            int limit = buffer.limit();
+            int start = buffer.position();
+            buffer.limit(start + count);
+            bodySink.write(buffer);
+            buffer.limit(limit);
+            remaining -= buffer.position() - start;
+            return;
+        }
+        if (bodyLength + count > body.length) {
+            checkBufferedBodySize(bodyLength + (long) count);
+            body = Arrays.copyOf(body, Math.max(bodyLength + count, Math.min(body.length * 2,
+                    MAX_BUFFERED_BODY_SIZE)));
+        }
+        buffer.get(body, bodyLength, count);
+        bodyLength += count;
+        remaining -= count;
+    }
+
+    private void checkBufferedBodySize(long size) throws HttpParseException {
+        if (size > MAX_BUFFERED_BODY_SIZE) {
+            throw new HttpParseException(413, "Body is larger than " + MAX_BUFFERED_BODY_SIZE + " bytes");
+        }
+    }
+
+    private void complete() throws IOException {
+        if (bodySink != null) {
+            bodySink.complete();
+        }
+        if (body != null) {
+            request.setBody(bodyLength == body.length ? body : Arrays.copyOf(body, bodyLength));
+        }
+        state = State.COMPLETE;
+    }
+
+    private String constant(String[] constants, int offset, int length) {
+        for (String constant : constants) {
+            if (Ascii.equals(constant, line, offset, length)) {
+                return constant;
+            }
+        }
+        return new String(line, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private int indexOf(char c, int from) {
+        for (int i = from; i < lineLength; i++) {
+            if (line[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,568 @@
+package com.server;
+
+import com.util.HttpHeaders;
+import com.util.MimeType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.util.Delimiters.crlf;
+
+public class HttpResponse {
+
+    private static final int COPY_BUFFER_SIZE = 65536;
+    static final int HEADER_BUFFER_SIZE = 2048;
+    /**
+     * The interim response a client sending Expect: 100-continue waits for before it sends the body.
+     */
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final int status;
+    private final FileChannel file;
+    private final MappedFileCache.MappedFile mappedFile;
+    private final boolean preEncoded;
+    private MimeType contentType;
+    private long contentLength = -1;
+    private String[] headerNames;
+    private String[] headerValues;
+    private int headerCount;
+    private final List<Segment> segments = new ArrayList<>();
+    private boolean keepAlive;
+    private int keepAliveTimeout;
+    private int current = -1;
+    private long headerLength;
+    private long bytesWritten;
+    private ByteBuffer copyBuffer;
+    private BufferPool buffers;
+    private FileIo fileIo;
+    private FileIo.Read pendingRead;
+    private long pendingPosition;
+    private ByteBuffer spareBuffer;
+    private boolean waitingForFile;
+    private MappedFileCache.Segment mappedSegment;
+    private ByteBuffer mappedSlice;
+
+    public static HttpResponse create(int status, byte[] body, MimeType contentType) {
+        HttpResponse response = new HttpResponse(status, null, null, false);
+        response.addContentHeaders(contentType, body.length);
+        response.segments.add(new Segment(ByteBuffer.wrap(body)));
+        return response;
+    }
+
+    /**
+     * Creates a response from bytes prepared by {@link #getEntityHeaderBytes()} followed by the body, so only
+     * the status line and connection headers are encoded per response.
+     *
+     * @param entityHeaderLength length of the headers at the start of the bytes
+     */
+    public static HttpResponse create(int status, ByteBuffer encoded, int entityHeaderLength) {
+        HttpResponse response = new HttpResponse(status, null, null, true);
+        response.segments.add(new Segment(encoded));
+        response.headerLength = entityHeaderLength;
+        return response;
+    }
+
+    /**
+     * Creates a response streaming the whole file, which is closed once the response is written or closed.
+     */
+    public static HttpResponse create(int status, FileChannel file, MimeType contentType) throws IOException {
+        long size = file.size();
+        HttpResponse response = new HttpResponse(status, file, null, false);
+        response.addContentHeaders(contentType, size);
+        response.segments.add(new Segment(0, size));
+        return response;
+    }
+
+    /**
+     * Creates a response sending the whole file from its mapped segments.
+     */
+    static HttpResponse create(int status, MappedFileCache.MappedFile file, MimeType contentType) {
+        HttpResponse response = new HttpResponse(status, null, file, false);
+        response.addContentHeaders(contentType, file.size());
+        response.segments.add(new Segment(0, file.size()));
+        return response;
+    }
+
+    /**
+     * Creates a response without a body, such as 304 Not Modified.
+     */
+    public static HttpResponse create(int status) {
+        return new HttpResponse(status, null, null, false);
+    }
+
+    /**
+     * Creates a 206 response streaming the ranges of the file, as multipart/byteranges if there is more than one.
+     */
+    static HttpResponse createPartial(FileChannel file, long length, List<ByteRange> ranges,
+                                      MimeType contentType) {
+        return addRanges(new HttpResponse(206, file, null, false), length, ranges, contentType);
+    }
+
+    /**
+     * Same as {@link #createPartial(FileChannel, long, List, MimeType)} sending the ranges from mapped segments.
+     */
+    static HttpResponse createPartial(MappedFileCache.MappedFile file, List<ByteRange> ranges,
+                                      MimeType contentType) {
+        return addRanges(new HttpResponse(206, null, file, false), file.size(), ranges, contentType);
+    }
+
+    private static HttpResponse addRanges(HttpResponse response, long length, List<ByteRange> ranges,
+                                          MimeType contentType) {
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.addContentHeaders(contentType, range.getLength());
+            response.addHeader(HttpHeaders.CONTENT_RANGE, range.toContentRange(length));
+            response.segments.add(new Segment(range.getStart(), range.getLength()));
+            return response;
+        }
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] partHeader = (crlf + "--" + boundary + crlf
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType.getContentType() + crlf
+                    + HttpHeaders.CONTENT_RANGE + ": " + range.toContentRange(length) + crlf
+                    + crlf).getBytes(StandardCharsets.US_ASCII);
+            response.segments.add(new Segment(ByteBuffer.wrap(partHeader)));
+            response.segments.add(new Segment(range.getStart(), range.getLength()));
+            contentLength += partHeader.length + range.getLength();
+        }
+        byte[] end = (crlf + "--" + boundary + "--" + crlf).getBytes(StandardCharsets.US_ASCII);
+        response.segments.add(new Segment(ByteBuffer.wrap(end)));
+        contentLength += end.length;
+        response.addHeader(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        response.contentLength = contentLength;
+        return response;
+    }
+
+    private HttpResponse(int status, FileChannel file, MappedFileCache.MappedFile mappedFile, boolean preEncoded) {
+        this.status = status;
+        this.file = file;
+        this.mappedFile = mappedFile;
+        this.preEncoded = preEncoded;
+    }
+
+    private void addContentHeaders(MimeType contentType, long contentLength) {
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive, int timeoutSeconds) {
+        this.keepAlive = keepAlive;
+        this.keepAliveTimeout = timeoutSeconds;
+    }
+
+    /**
+     * @return the number of bytes of the status line, headers and body written so far
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the number of bytes of the body written so far
+     */
+    public long getBodyBytesWritten() {
+        return Math.max(0, bytesWritten - headerLength);
+    }
+
+    /**
+     * Adds a header, replacing an earlier one with the same name.
+     */
+    public void addHeader(String name, String value) {
+        if (headerNames == null) {
+            headerNames = new String[4];
+            headerValues = new String[4];
+        }
+        for (int i = 0; i < headerCount; i++) {
+            if (headerNames[i].equals(name)) {
+                headerValues[i] = value;
+                return;
+            }
+        }
+        if (headerCount == headerNames.length) {
+            headerNames = Arrays.copyOf(headerNames, headerCount * 2);
+            headerValues = Arrays.copyOf(headerValues, headerCount * 2);
+        }
+        headerNames[headerCount] = name;
+        headerValues[headerCount++] = value;
+    }
+
+    public byte[] getHeaderBytes() {
+        return toArray(encodeHeaders(null, false));
+    }
+
+    /**
+     * Returns every header except the status line and connection headers, terminated by the empty line. Must be
+     * called before the response is written.
+     */
+    public byte[] getEntityHeaderBytes() {
+        if (preEncoded) {
+            byte[] bytes = new byte[(int) headerLength];
+            segments.get(0).buffer.duplicate().get(bytes);
+            return bytes;
+        }
+        return toArray(encodeHeaders(null, true));
+    }
+
+    /**
+     * @return true if the body has at least one byte, must be called before the response is written
+     */
+    public boolean hasBody() {
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            long length = segment.buffer == null ? segment.count
+                    : segment.buffer.remaining() - (preEncoded && i == 0 ? headerLength : 0);
+            if (length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the headers into the buffer, or into a new one if it is null or too small.
+     *
+     * @return the buffer holding the headers, ready to be written
+     */
+    private ByteBuffer encodeHeaders(ByteBuffer buffer, boolean entityOnly) {
+        int size = buffer == null ? HEADER_BUFFER_SIZE : buffer.capacity();
+        while (true) {
+            ByteBuffer target = buffer == null ? ByteBuffer.allocate(size) : buffer;
+            target.clear();
+            try {
+                if (!entityOnly) {
+                    HeaderEncoder.putStatusLine(target, status);
+                    HeaderEncoder.putConnection(target, keepAlive, keepAliveTimeout);
+                }
+                if (entityOnly || !preEncoded) {
+                    putEntityHeaders(target);
+                }
+                target.flip();
+                return target;
+            } catch (BufferOverflowException exception) {
+                buffer = null;
+                size *= 2;
+            }
+        }
+    }
+
+    private void putEntityHeaders(ByteBuffer buffer) {
+        if (contentType != null) {
+            HeaderEncoder.putContentType(buffer, contentType);
+        }
+        if (contentLength != -1) {
+            HeaderEncoder.putContentLength(buffer, contentLength);
+        }
+        for (int i = 0; i < headerCount; i++) {
+            HeaderEncoder.putHeader(buffer, headerNames[i], headerValues[i]);
+        }
+        HeaderEncoder.putEnd(buffer);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes as much of the response as the channel accepts. File regions go through
+     * {@link FileChannel#transferTo} when the target is a socket, so they never pass through the heap; other
+     * channels get the file copied through a fixed size buffer.
+     *
+     * @return true when the whole response has been written
+     */
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        return writeTo(channel, null);
+    }
+
+    /**
+     * Same as {@link #writeTo(WritableByteChannel)}, encoding the headers into a buffer owned by the connection,
+     * which must not be touched until the response is written.
+     */
+    public boolean writeTo(WritableByteChannel channel, ByteBuffer headerBuffer) throws IOException {
+        if (current == -1) {
+            ByteBuffer headers = encodeHeaders(headerBuffer, false);
+            headerLength += headers.remaining();
+            segments.add(0, new Segment(headers));
+            current = 0;
+        }
+        return writeSegments(channel);
+    }
+
+    /**
+     * Writes as much of the body as the channel accepts, without the status line and headers, which HTTP/2 sends
+     * in a frame of their own.
+     *
+     * @return true when the whole body has been written
+     */
+    public boolean writeBodyTo(WritableByteChannel channel) throws IOException {
+        if (current == -1) {
+            if (preEncoded) {
+                ByteBuffer encoded = segments.get(0).buffer;
+                encoded.position(encoded.position() + (int) headerLength);
+                headerLength = 0;
+            }
+            current = 0;
+        }
+        return writeSegments(channel);
+    }
+
+    private boolean writeSegments(WritableByteChannel channel) throws IOException {
+        while (current < segments.size()) {
+            Segment segment = segments.get(current);
+            if (segment.buffer != null) {
+                if (!writeBuffers(channel)) {
+                    return false;
+                }
+            } else if (mappedFile != null ? writeMapped(channel, segment) : writeRegion(channel, segment)) {
+                current++;
+            } else {
+                return false;
+            }
+        }
+        close();
+        return true;
+    }
+
+    /**
+     * Takes the buffers file chunks are copied through from the pool instead of the heap. They go back when the
+     * response is closed, or once the read still in flight is done.
+     */
+    void setBufferPool(BufferPool buffers) {
+        this.buffers = buffers;
+    }
+
+    /**
+     * Reads the file ahead on the pool instead of on the writing thread, starting with its first region while the
+     * headers are sent. The write methods then also return false while the next chunk is read, which
+     * {@link #isWaitingForFile()} tells apart from a full socket.
+     */
+    void readAheadOn(FileIo fileIo) {
+        if (file == null) {
+            return;
+        }
+        this.fileIo = fileIo;
+        for (Segment segment : segments) {
+            if (segment.buffer == null) {
+                startRead(segment.position, segment.count);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the last write stopped because the next chunk of the file is still being read
+     */
+    boolean isWaitingForFile() {
+        return waitingForFile;
+    }
+
+    /**
+     * Runs the listener on a pool thread once the chunk the response waits for has been read, or right away if
+     * it already has.
+     */
+    void whenFileReady(Runnable listener) {
+        pendingRead.whenDone(listener);
+    }
+
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+        if (mappedSegment != null) {
+            mappedSegment.release();
+            mappedSegment = null;
+            mappedSlice = null;
+        }
+        if (buffers != null) {
+            releaseCopyBuffers();
+        }
+    }
+
+    private void releaseCopyBuffers() {
+        if (copyBuffer != null) {
+            buffers.release(copyBuffer);
+            copyBuffer = null;
+        }
+        if (spareBuffer != null) {
+            buffers.release(spareBuffer);
+            spareBuffer = null;
+        }
+        if (pendingRead != null) {
+            pendingRead.releaseTo(buffers);
+            pendingRead = null;
+        }
+    }
+
+    private boolean writeBuffers(WritableByteChannel channel) throws IOException {
+        int end = current;
+        while (end < segments.size() && segments.get(end).buffer != null) {
+            end++;
+        }
+        if (end - current > 1 && channel instanceof GatheringByteChannel) {
+            ByteBuffer[] buffers = new ByteBuffer[end - current];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = segments.get(current + i).buffer;
+            }
+            bytesWritten += ((GatheringByteChannel) channel).write(buffers);
+        } else {
+            bytesWritten += channel.write(segments.get(current).buffer);
+        }
+        while (current < end && !segments.get(current).buffer.hasRemaining()) {
+            current++;
+        }
+        return current == end;
+    }
+
+    private boolean writeRegion(WritableByteChannel channel, Segment segment) throws IOException {
+        while (segment.written < segment.count) {
+            long position = segment.position + segment.written;
+            long remaining = segment.count - segment.written;
+            long written;
+            if (fileIo != null) {
+                written = copyReadAhead(channel, position, remaining);
+                if (waitingForFile) {
+                    return false;
+                }
+            } else if (channel instanceof SocketChannel) {
+                written = file.transferTo(position, remaining, channel);
+            } else {
+                written = copyFileChunk(channel, position, remaining);
+            }
+            if (written == 0) {
+                if (position >= file.size()) {
+                    throw new EOFException("File shrank while it was being sent");
+                }
+                return false;
+            }
+            segment.written += written;
+            bytesWritten += written;
+        }
+        return true;
+    }
+
+    /**
+     * Writes a file region from the mapped segments, holding a reference to one segment at a time.
+     */
+    private boolean writeMapped(WritableByteChannel channel, Segment segment) throws IOException {
+        while (segment.written < segment.count) {
+            long position = segment.position + segment.written;
+            if (mappedSlice == null || !mappedSlice.hasRemaining()) {
+                if (mappedSegment != null) {
+                    mappedSegment.release();
+                    mappedSegment = null;
+                }
+                mappedSegment = mappedFile.acquire(position);
+                mappedSlice = mappedSegment.slice(position, segment.count - segment.written);
+            }
+            int written = channel.write(mappedSlice);
+            if (written == 0) {
+                return false;
+            }
+            segment.written += written;
+            bytesWritten += written;
+        }
+        return true;
+    }
+
+    private long copyFileChunk(WritableByteChannel channel, long position, long remaining) throws IOException {
+        if (copyBuffer == null) {
+            copyBuffer = allocateCopyBuffer();
+            copyBuffer.flip();
+        }
+        if (!copyBuffer.hasRemaining()) {
+            copyBuffer.clear();
+            copyBuffer.limit((int) Math.min(copyBuffer.capacity(), remaining));
+            if (file.read(copyBuffer, position) == -1) {
+                throw new EOFException("File shrank while it was being sent");
+            }
+            copyBuffer.flip();
+        }
+        return channel.write(copyBuffer);
+    }
+
+    /**
+     * Writes the chunk read ahead, swapping buffers with the pool: while one is written, the next part of the
+     * region is read into the other.
+     */
+    private long copyReadAhead(WritableByteChannel channel, long position, long remaining) throws IOException {
+        waitingForFile = false;
+        if (copyBuffer == null || !copyBuffer.hasRemaining()) {
+            if (pendingRead == null || pendingPosition != position && pendingRead.isDone()) {
+                if (pendingRead != null) {
+                    spareBuffer = pendingRead.getBuffer();
+                }
+                startRead(position, remaining);
+            }
+            if (!pendingRead.isDone() || pendingPosition != position) {
+                waitingForFile = true;
+                return 0;
+            }
+            ByteBuffer chunk = pendingRead.getBuffer();
+            boolean ended = pendingRead.getCount() == -1;
+            pendingRead = null;
+            spareBuffer = copyBuffer;
+            copyBuffer = chunk;
+            if (ended) {
+                throw new EOFException("File shrank while it was being sent");
+            }
+            if (remaining > chunk.remaining()) {
+                startRead(position + chunk.remaining(), remaining - chunk.remaining());
+            }
+        }
+        return channel.write(copyBuffer);
+    }
+
+    private void startRead(long position, long remaining) {
+        ByteBuffer buffer = spareBuffer != null ? spareBuffer : allocateCopyBuffer();
+        spareBuffer = null;
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), remaining));
+        pendingPosition = position;
+        pendingRead = fileIo.read(file, buffer, position);
+    }
+
+    private ByteBuffer allocateCopyBuffer() {
+        return buffers != null ? buffers.lease(COPY_BUFFER_SIZE) : ByteBuffer.allocate(COPY_BUFFER_SIZE);
+    }
+
+    private static class Segment {
+
+        private final ByteBuffer buffer;
+        private final long position;
+        private final long count;
+        private long written;
+
+        Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.position = 0;
+            this.count = 0;
+        }
+
+        Segment(long position, long count) {
+            this.buffer = null;
+            this.position = position;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.server;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.server.MyServer.log;
+
+/**
+ * Bounded pool of memory mapped segments of large files, shared by every response sending them, so repeated
+ * reads come from the page cache without a copy through the heap. Segments are mapped on first use and evicted
+ * in LRU order once the mapped bytes exceed the capacity. A segment is reference counted by the responses
+ * writing it and only unmapped once it is evicted and no longer referenced.
+ */
+class MappedFileCache {
+
+    static final int SEGMENT_SIZE = 64 << 20;
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    private final long capacity;
+    private final Map<Path, MappedFile> files = new HashMap<>();
+    private final LinkedHashMap<Segment, Segment> segments = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long size;
+
+    MappedFileCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param attributes freshly read attributes of the file, a file that changed since it was mapped is remapped
+     */
+    synchronized MappedFile get(Path path, BasicFileAttributes attributes) {
+        MappedFile file = files.get(path);
+        if (file != null && file.matches(attributes)) {
+            return file;
+        }
+        if (file != null) {
+            invalidate(file);
+        }
+        file = new MappedFile(this, path, attributes);
+        files.put(path, file);
+        return file;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    private synchronized Segment acquire(MappedFile file, int index) throws IOException {
+        Segment segment = file.segments[index];
+        if (segment != null) {
+            segments.get(segment);
+            hits.increment();
+        } else {
+            misses.increment();
+            long position = (long) index * SEGMENT_SIZE;
+            long count = Math.min(SEGMENT_SIZE, file.size - position);
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file.path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, count);
+            }
+            segment = new Segment(file, index, buffer);
+            if (file.invalid) {
+                // Still being sent by responses started before the file changed, but no longer shared
+                segment.evicted = true;
+            } else {
+                file.segments[index] = segment;
+                file.mappedSegments++;
+                segments.put(segment, segment);
+                size += count;
+                evict(segment);
+            }
+        }
+        segment.references++;
+        return segment;
+    }
+
+    private synchronized void release(Segment segment) {
+        if (--segment.references == 0 && segment.evicted) {
+            UNMAPPER.unmap(segment.buffer);
+        }
+    }
+
+    private void evict(Segment keep) {
+        Iterator<Segment> iterator = segments.keySet().iterator();
+        while (size > capacity && iterator.hasNext()) {
+            Segment victim = iterator.next();
+            if (victim == keep) {
+                continue;
+            }
+            iterator.remove();
+            evictions.increment();
+            discard(victim);
+            if (victim.file.mappedSegments == 0 && files.get(victim.file.path) == victim.file) {
+                files.remove(victim.file.path);
+            }
+        }
+    }
+
+    private void invalidate(MappedFile file) {
+        file.invalid = true;
+        files.remove(file.path);
+        for (Segment segment : file.segments) {
+            if (segment != null) {
+                segments.remove(segment);
+                discard(segment);
+            }
+        }
+    }
+
+    private void discard(Segment segment) {
+        size -= segment.buffer.capacity();
+        segment.file.segments[segment.index] = null;
+        segment.file.mappedSegments--;
+        segment.evicted = true;
+        if (segment.references == 0) {
+            UNMAPPER.unmap(segment.buffer);
+        }
+    }
+
+    /**
+     * A file as it was when first requested, mapped segment by segment while responses send it.
+     */
+    static final class MappedFile {
+
+        private final MappedFileCache cache;
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        private final Segment[] segments;
+        private int mappedSegments;
+        private boolean invalid;
+
+        private MappedFile(MappedFileCache cache, Path path, BasicFileAttributes attributes) {
+            this.cache = cache;
+            this.path = path;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.segments = new Segment[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * @return the segment holding the position, which must be released once it has been sent
+         */
+        Segment acquire(long position) throws IOException {
+            return cache.acquire(this, (int) (position / SEGMENT_SIZE));
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+        }
+    }
+
+    static final class Segment {
+
+        private final MappedFile file;
+        private final int index;
+        private final MappedByteBuffer buffer;
+        private int references;
+        private boolean evicted;
+
+        private Segment(MappedFile file, int index, MappedByteBuffer buffer) {
+            this.file = file;
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return a view of the file from the position to the end of the segment, but at most count bytes
+         */
+        ByteBuffer slice(long position, long count) {
+            ByteBuffer slice = buffer.duplicate();
+            int offset = (int) (position - (long) index * SEGMENT_SIZE);
+            slice.position(offset);
+            slice.limit((int) Math.min(slice.capacity(), offset + count));
+            return slice;
+        }
+
+        void release() {
+            file.cache.release(this);
+        }
+    }
+
+    /**
+     * Unmaps a buffer right away instead of waiting for the garbage collector, which could keep evicted segments
+     * mapped indefinitely. Looked up reflectively: {@code Unsafe.invokeCleaner} on Java 9+, the buffer's cleaner
+     * on Java 8, nothing if neither is accessible.
+     */
+    private static final class Unmapper {
+
+        private final Object unsafe;
+        private final Method invokeCleaner;
+
+        private Unmapper(Object unsafe, Method invokeCleaner) {
+            this.unsafe = unsafe;
+            this.invokeCleaner = invokeCleaner;
+        }
+
+        static Unmapper create() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                return new Unmapper(field.get(null), invokeCleaner);
+            } catch (ReflectiveOperationException | RuntimeException exception) {
+                return new Unmapper(null, null);
+            }
+        }
+
+        void unmap(MappedByteBuffer buffer) {
+            try {
+                if (invokeCleaner != null) {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } else {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException exception) {
+                log.fine("Cannot unmap buffer, leaving it to the garbage collector: " + exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.server;
+
+import com.util.HttpHeaders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.server.MyServer.log;
+
+/**
+ * Streaming multipart/form-data decoder. The boundary is searched with an incremental KMP matcher, so it is
+ * found across buffer borders without holding more than the bytes of the current buffer. File parts are
+ * written to a temp file in the target folder and moved into place once the part is complete. With a
+ * {@link FileIo} pool the part is decoded straight into the writer's buffers and the writes are handed to its
+ * threads. When all of them are in flight, or the last writes of a part are, the decoder stops taking bytes and
+ * tells the caller once it can go on, see {@link #isWaiting()}.
+ */
+class MultipartDecoder implements BodySink {
+
+    static final String TEMP_FILE_PREFIX = ".upload-";
+
+    private static final int MAX_PART_HEADER_LENGTH = 8192;
+    private static final int OUTPUT_BUFFER_SIZE = 65536;
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+    private static final Pattern FILENAME = Pattern.compile("filename=\"([^\"]*)\"");
+
+    enum State {
+        PREAMBLE,
+        DELIMITER_SUFFIX,
+        PART_HEADERS,
+        PART_BODY,
+        EPILOGUE
+    }
+
+    private final Path folder;
+    private final FileIo fileIo;
+    private final BufferPool buffers;
+    private final byte[] delimiter;
+    private final int[] failure;
+    private final byte[] partHeader = new byte[MAX_PART_HEADER_LENGTH];
+    private State state = State.PREAMBLE;
+    private int matched;
+    private int partHeaderLength;
+    private String filename;
+    private Path tempFile;
+    private FileChannel file;
+    private FileIo.Writer writer;
+    private boolean closing;
+    private ByteBuffer output;
+
+    /**
+     * @param fileIo the pool writing the files, or null to write them on the calling thread
+     * @return a decoder for a multipart/form-data request or null if the request has no multipart body
+     */
+    static MultipartDecoder create(HttpRequest request, Path folder, FileIo fileIo, BufferPool buffers) {
+        String contentType = request.getHeader(HttpHeaders.CONTENT_TYPE);
+        if (contentType == null || !contentType.toLowerCase().startsWith("multipart/form-data")) {
+            return null;
+        }
+        Matcher matcher = BOUNDARY.matcher(contentType);
+        return matcher.find() ? new MultipartDecoder(matcher.group(1), folder, fileIo, buffers) : null;
+    }
+
+    MultipartDecoder(String boundary, Path folder, FileIo fileIo, BufferPool buffers) {
+        this.folder = folder;
+        this.fileIo = fileIo;
+        this.buffers = buffers;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.failure = failureFunction(delimiter);
+        // The first delimiter has no leading CRLF, so the matcher starts as if it had already seen one
+        this.matched = 2;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && resume()) {
+            switch (state) {
+                case PREAMBLE:
+                case PART_BODY:
+                case EPILOGUE:
+                    scanBody(buffer);
+                    break;
+                case DELIMITER_SUFFIX:
+                    readDelimiterSuffix(buffer);
+                    break;
+                case PART_HEADERS:
+                    readPartHeaders(buffer);
+                    break;
+                default:
+                    throw new IllegalStateException(state.toString());
+            }
+        }
+    }
+
+    @Override
+    public void complete() throws IOException {
+        if (state != State.EPILOGUE) {
+            abort();
+            throw new HttpParseException("Multipart body ended before the closing boundary");
+        }
+    }
+
+    @Override
+    public boolean isWaiting() {
+        if (writer == null) {
+            return false;
+        }
+        return closing ? !writer.isIdle() : output == null && !writer.hasFree();
+    }
+
+    @Override
+    public void whenReady(Runnable listener) {
+        if (writer != null) {
+            writer.whenWritten(listener);
+        } else {
+            listener.run();
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (file == null && writer == null) {
+            return;
+        }
+        releaseOutput();
+        try {
+            if (file != null) {
+                file.close();
+            } else {
+                // Writes still in flight go to the deleted file
+                writer.close();
+            }
+        } catch (IOException exception) {
+            log.info(exception.toString());
+        }
+        file = null;
+        writer = null;
+        closing = false;
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException exception) {
+            log.info(exception.toString());
+        }
+    }
+
+    /**
+     * Takes a buffer from the writer or finishes the part whose last writes were in flight, if it can.
+     *
+     * @return false while the decoder waits for the writes
+     */
+    private boolean resume() throws IOException {
+        if (writer == null) {
+            return true;
+        }
+        if (closing) {
+            if (!writer.isIdle()) {
+                return false;
+            }
+            writer.close();
+            writer = null;
+            closing = false;
+            movePart();
+            return true;
+        }
+        if (output == null) {
+            output = writer.take();
+        }
+        return output != null;
+    }
+
+    private void scanBody(ByteBuffer buffer) throws IOException {
+        if (state == State.EPILOGUE) {
+            buffer.position(buffer.limit());
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            // A byte can give back the bytes of a partly matched delimiter, they have to fit in the output
+            if (!ensureRoom(delimiter.length)) {
+                return;
+            }
+            if (matched == 0 && buffer.get(buffer.position()) != delimiter[0]) {
+                emitUntil(buffer, delimiter[0]);
+                continue;
+            }
+            byte b = buffer.get();
+            while (matched > 0 && b != delimiter[matched]) {
+                int fallback = failure[matched];
+                emit(delimiter, 0, matched - fallback);
+                matched = fallback;
+            }
+            if (b == delimiter[matched]) {
+                if (++matched == delimiter.length) {
+                    matched = 0;
+                    state = State.DELIMITER_SUFFIX;
+                    endPart();
+                    return;
+                }
+            } else {
+                emit(b);
+            }
+        }
+    }
+
+    private void readDelimiterSuffix(ByteBuffer buffer) throws HttpParseException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '-') {
+                matched++;
+                if (matched == 2) {
+                    matched = 0;
+                    state = State.EPILOGUE;
+                    return;
+                }
+            } else if (b == '\n') {
+                matched = 0;
+                partHeaderLength = 0;
+                filename = null;
+                state = State.PART_HEADERS;
+                return;
+            } else if (b != '\r' && b != ' ' && b != '\t' || matched != 0) {
+                throw new HttpParseException("Malformed multipart delimiter");
+            }
+        }
+    }
+
+    private void readPartHeaders(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                int length = partHeaderLength > 0 && partHeader[partHeaderLength - 1] == '\r'
+                        ? partHeaderLength - 1 : partHeaderLength;
+                partHeaderLength = 0;
+                if (length == 0) {
+                    startPart();
+                    state = State.PART_BODY;
+                    return;
+                }
+                parsePartHeader(length);
+            } else if (partHeaderLength == MAX_PART_HEADER_LENGTH) {
+                throw new HttpParseException("Multipart header is longer than " + MAX_PART_HEADER_LENGTH + " bytes");
+            } else {
+                partHeader[partHeaderLength++] = b;
+            }
+        }
+    }
+
+    private void parsePartHeader(int length) {
+        String header = new String(partHeader, 0, length, StandardCharsets.UTF_8);
+        if (header.regionMatches(true, 0, "Content-Disposition:", 0, 20)) {
+            Matcher matcher = FILENAME.matcher(header);
+            if (matcher.find()) {
+                filename = matcher.group(1);
+            }
+        }
+    }
+
+    private void startPart() throws IOException {
+        String name = filename == null ? "" : baseName(filename);
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return;
+        }
+        filename = name;
+        tempFile = Files.createTempFile(folder, TEMP_FILE_PREFIX, ".tmp");
+        if (fileIo != null) {
+            writer = fileIo.openWriter(tempFile, OUTPUT_BUFFER_SIZE);
+            output = writer.take();
+        } else {
+            file = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+            output = buffers.lease(OUTPUT_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Writes the rest of the part and moves it into place, once its writes are done if they are in flight.
+     */
+    private void endPart() throws IOException {
+        if (writer != null) {
+            output.flip();
+            writer.write(output);
+            output = null;
+            closing = true;
+            return;
+        }
+        if (file == null) {
+            return;
+        }
+        flush();
+        releaseOutput();
+        file.close();
+        file = null;
+        movePart();
+    }
+
+    private void movePart() throws IOException {
+        Path target = folder.resolve(filename);
+        try {
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        log.info("Saved " + target);
+    }
+
+    private void emitUntil(ByteBuffer buffer, byte stop) throws IOException {
+        int start = buffer.position();
+        int end = start;
+        int limit = buffer.limit();
+        while (end < limit && buffer.get(end) != stop) {
+            end++;
+        }
+        if (state != State.PART_BODY || output == null) {
+            buffer.position(end);
+            return;
+        }
+        while (buffer.position() < end) {
+            if (!ensureRoom(1)) {
+                return;
+            }
+            int count = Math.min(output.remaining(), end - buffer.position());
+            buffer.limit(buffer.position() + count);
+            output.put(buffer);
+            buffer.limit(limit);
+        }
+    }
+
+    /**
+     * Room is made with {@link #ensureRoom(int)} before the byte that leads to the emitted bytes is taken.
+     */
+    private void emit(byte b) {
+        if (state == State.PART_BODY && output != null) {
+            output.put(b);
+        }
+    }
+
+    private void emit(byte[] bytes, int offset, int length) {
+        if (state == State.PART_BODY && output != null) {
+            output.put(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Flushes the output if it has less room than the length in a part being saved.
+     *
+     * @return false if the output has to wait for a buffer to be written
+     */
+    private boolean ensureRoom(int length) throws IOException {
+        if (state != State.PART_BODY || file == null && writer == null) {
+            return true;
+        }
+        if (output == null || output.remaining() >= length) {
+            return output != null;
+        }
+        flush();
+        return output != null;
+    }
+
+    private void flush() throws IOException {
+        output.flip();
+        if (writer != null) {
+            writer.write(output);
+            // The buffer is the writer's now, even if taking the next one fails
+            output = null;
+            output = writer.take();
+            return;
+        }
+        while (output.hasRemaining()) {
+            file.write(output);
+        }
+        output.clear();
+    }
+
+    private void releaseOutput() {
+        if (output == null) {
+            return;
+        }
+        if (writer != null) {
+            writer.release(output);
+        } else {
+            buffers.release(output);
+        }
+        output = null;
+    }
+
+    private static String baseName(String filename) {
+        int separator = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\'));
+        return filename.substring(separator + 1).trim();
+    }
+
+    private static int[] failureFunction(byte[] pattern) {
+        // failure[i] is the length of the longest proper prefix of pattern[0, i) that is also its suffix
+        int[] failure = new int[pattern.length + 1];
+        for (int i = 2, k = 0; i <= pattern.length; i++) {
+            while (k > 0 && pattern[i - 1] != pattern[k]) {
+                k = failure[k];
+            }
+            if (pattern[i - 1] == pattern[k]) {
+                k++;
+            }
+            failure[i] = k;
+        }
+        return failure;
+    }
+}
@@ -5,40 +5,194 @@ import com.util.HttpHeaders;
 import com.util.MimeType;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-
-import static com.util.Arrays.concatArrays;
-import static com.util.Delimiters.crlf;
 
 public class MyServer implements Server {
 
     private final String fileFolder;
     private final Integer port;
-    private boolean shouldStop = false;
-    static ExecutorService executorService = Executors.newFixedThreadPool(10);
+    private final ServerSettings settings;
+    private final FileCache fileCache;
+    private final FileCache compressionCache;
+    private final MappedFileCache mappedFiles;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final BufferPool buffers;
+    private final AdmissionControl admission;
+    private final Router router;
+    private final Set<ConnectionTask> connections = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicInteger drainedRequests = new AtomicInteger();
+    private DirectoryIndex directoryIndex;
+    private AccessLog accessLog;
+    private FileIo fileIo;
+    private TlsContext tls;
+    private volatile ServerSocketChannel[] serverChannels;
+    private volatile boolean shouldStop;
+    private volatile long drainDeadline;
+    private volatile String stopReport;
+    static final int READ_BUFFER_SIZE = 8192;
+    private static final long DRAIN_POLL_MILLIS = 50;
+    private static final byte[] SERVICE_UNAVAILABLE = "Service Unavailable".getBytes(StandardCharsets.UTF_8);
     static Logger log = Logger.getLogger(MainServer.class.getName());
 
     public MyServer(String[] args) {
+        this(args, ServerSettings.fromSystemProperties());
+    }
+
+    public MyServer(String[] args, ServerSettings settings) {
+        this.settings = settings;
+        this.admission = new AdmissionControl(settings.getMaxConnections(), settings.getMaxConnectionsPerClient());
+        metrics.setAdmittedConnections(admission::getConnections);
+        this.fileCache = settings.getCacheBytes() > 0
+                ? new FileCache(settings.getCacheBytes(), settings.getCacheMaxFileSize()) : null;
+        this.compressionCache = settings.isCompression() && settings.getCompressionCacheBytes() > 0
+                ? new FileCache(settings.getCompressionCacheBytes(), settings.getCompressionMaxFileSize()) : null;
+        this.mappedFiles = settings.getMmapBytes() > 0 ? new MappedFileCache(settings.getMmapBytes()) : null;
+        this.buffers = new BufferPool(settings.getBufferPoolBytes(), settings.isBufferLeakDetection());
+        metrics.setBufferPool(buffers);
+        if (mappedFiles != null) {
+            metrics.setMappedFiles(mappedFiles);
+        }
+        if (fileCache != null) {
+            metrics.addCache("files", fileCache);
+        }
+        if (compressionCache != null) {
+            metrics.addCache("compressed", compressionCache);
+        }
+        if (settings.getTlsKeyStore() != null && settings.getMode() != ServerMode.NIO) {
+            throw new IllegalArgumentException("TLS is only served in nio mode");
+        }
+        if (settings.getAcceptors() > 1 && settings.getMode() != ServerMode.NIO) {
+            throw new IllegalArgumentException("Several acceptors are only used in nio mode");
+        }
+        if (settings.getMimeTypes() != null) {
+            loadMimeTypes(Paths.get(settings.getMimeTypes()));
+        }
         if (args.length == 2) {
             fileFolder = args[0];
             port = Integer.parseInt(args[1]);
         } else {
             throw new IllegalArgumentException("Illegal arguments " + Arrays.toString(args));
         }
+        this.router = createRouter();
+    }
+
+    private Router createRouter() {
+        Router router = new Router(request -> getNotFound());
+        router.add(HttpRequest.GET, "/", ServerMetrics.Route.HOME, this::loadHomePage, null);
+        if (!settings.getMetricsPath().isEmpty()) {
+            router.add(HttpRequest.GET, settings.getMetricsPath(), ServerMetrics.Route.METRICS,
+                    request -> HttpResponse.create(200, metrics.scrape().getBytes(StandardCharsets.UTF_8),
+                            MimeType.text), null);
+        }
+        router.add(HttpRequest.GET, "/favicon.ico", ServerMetrics.Route.FAVICON, this::loadFavicon, null);
+        router.addPrefix(HttpRequest.GET, "/", ServerMetrics.Route.FILE, this::loadFile, null);
+        // Blocking connections write uploads themselves, their thread would wait for the socket anyway
+        router.addPrefix(HttpRequest.POST, "/", ServerMetrics.Route.UPLOAD, this::saveFile,
+                request -> MultipartDecoder.create(request, Paths.get(fileFolder),
+                        settings.getMode() == ServerMode.NIO ? fileIo : null, buffers));
+        return router;
+    }
+
+    private final RequestProcessor requestProcessor = new RequestProcessor() {
+        @Override
+        public HttpResponse process(HttpRequest request, int servedRequests) {
+            HttpResponse response;
+            try {
+                response = router.route(request).getHandler().handle(request);
+            } catch (Exception exception) {
+                return error(exception);
+            }
+            boolean keepAlive = servedRequests + 1 < settings.getMaxKeepAliveRequests() && request.isKeepAlive()
+                    && !shouldStop;
+            response.setKeepAlive(keepAlive, settings.getKeepAliveTimeout() / 1000);
+            response.setBufferPool(buffers);
+            if (fileIo != null && settings.getMode() == ServerMode.NIO) {
+                // Blocking connections keep sendfile, their thread would wait for the socket anyway
+                response.readAheadOn(fileIo);
+            }
+            return response;
+        }
+
+        @Override
+        public BodySink create(HttpRequest request) throws IOException {
+            BodySink.Factory bodySink = router.route(request).getBodySink();
+            return bodySink != null ? bodySink.create(request) : null;
+        }
+
+        @Override
+        public HttpResponse error(Exception exception) {
+            log.info(exception.toString());
+            return getErrorResponse(exception);
+        }
+
+        @Override
+        public void completed(InetAddress client, HttpRequest request, HttpResponse response, long elapsedNanos) {
+            ServerMetrics.Route route = request == null ? ServerMetrics.Route.OTHER
+                    : router.route(request).getMetricsRoute();
+            metrics.recordRequest(route, response.getStatus(), elapsedNanos, response.getBytesWritten());
+            if (shouldStop) {
+                drainedRequests.incrementAndGet();
+            }
+            if (accessLog != null) {
+                accessLog.log(client, request, response);
+            }
+        }
+    };
+
+    private void loadMimeTypes(Path file) {
+        try {
+            log.info("Loaded " + MimeType.load(file) + " MIME type mappings from " + file);
+        } catch (IOException exception) {
+            log.info("Cannot load MIME types from " + file + ": " + exception);
+        }
+    }
+
+    /**
+     * Routes added here before the server starts are served next to the built-in ones.
+     */
+    public Router getRouter() {
+        return router;
+    }
+
+    public FileCache getFileCache() {
+        return fileCache;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return what the drain completed and aborted, or null until the server has stopped
+     */
+    @Override
+    public String getStopReport() {
+        return stopReport;
     }
 
     @Override
@@ -48,238 +202,549 @@ public class MyServer implements Server {
 
     @Override
     public void stop() throws IOException {
-        stopListener();
+        stop(settings.getDrainTimeout());
     }
 
-    private void stopListener() throws IOException {
-        shouldStop = true;
-        Socket client = new Socket();
-        SocketAddress socketAddress = new InetSocketAddress(port);
-        client.connect(socketAddress);
-        log.info("Stopping server");
+    /**
+     * Stops accepting connections, closes keep-alive connections waiting for their next request and lets the
+     * requests in flight finish, closing whatever is still open once the drain timeout passes. Returns when the
+     * server has stopped.
+     */
+    @Override
+    public void stop(long drainTimeoutMillis) throws IOException {
+        if (!shouldStop) {
+            log.info("Stopping server, draining connections for up to " + drainTimeoutMillis + " ms");
+            drainDeadline = System.currentTimeMillis() + drainTimeoutMillis;
+            shouldStop = true;
+        }
+        ServerSocketChannel[] channels = serverChannels;
+        if (channels == null) {
+            return;
+        }
+        for (ServerSocketChannel channel : channels) {
+            channel.close();
+        }
+        try {
+            stopped.await();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void startListener() throws IOException {
-        log.info("Starting server");
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            log.info("Server starter at port " + port);
-            while (true) {
-                Socket accept = serverSocket.accept();
-                if (shouldStop) {
-                    accept.close();
-                    break;
-                }
-                executorService.submit(() -> {
-                    try {
-                        process(accept);
-                    } catch (Exception exception) {
-                        log.info(exception.toString());
-                        write500Error(accept, exception);
-                    }
-                });
+        log.info("Starting server in " + settings.getMode() + " mode");
+        try (DirectoryIndex index = new DirectoryIndex(Paths.get(fileFolder), Paths.get("Hello.html"),
+                settings.getIndexPageSize(), settings.isCompression());
+             AccessLog requestLog = openAccessLog();
+             FileIo io = settings.getIoThreads() > 0 ? new FileIo(settings.getIoThreads(), buffers) : null) {
+            directoryIndex = index;
+            accessLog = requestLog;
+            fileIo = io;
+            if (settings.getMode() == ServerMode.NIO) {
+                tls = settings.getTlsKeyStore() != null ? TlsContext.create(settings) : null;
+                startNioListener();
+            } else {
+                startBlockingListener();
             }
         } finally {
-            executorService.shutdown();
+            int leaks = buffers.reportLeaks();
+            if (leaks > 0 && stopReport != null) {
+                stopReport += ", " + leaks + " pooled buffers never released";
+            }
+            stopped.countDown();
         }
     }
 
-    private void write500Error(Socket accept, Exception exception) {
-        HttpResponse httpResponse = HttpResponse.create(500, exception.toString().getBytes(StandardCharsets.UTF_8),
-                MimeType.text);
-        try {
-            writeToSocket(accept, httpResponse.getBytes());
-            accept.close();
-        } catch (Exception ex) {
-            log.info("SOCKET EXCEPTION");
-            ex.printStackTrace();
+    private AccessLog openAccessLog() throws IOException {
+        if (settings.getAccessLog() == null) {
+            return null;
         }
+        AccessLog requestLog = new AccessLog(Paths.get(settings.getAccessLog()), settings.getAccessLogFormat(),
+                settings.getAccessLogPolicy(), settings.getAccessLogBufferSize(), settings.getAccessLogMaxBytes(),
+                settings.getAccessLogRotateInterval());
+        metrics.setAccessLogDropped(requestLog::getDropped);
+        return requestLog;
     }
 
-    private void process(Socket accept) throws IOException {
-        requestMatchers(accept);
-    }
-
-    private void requestMatchers(Socket accept) throws IOException {
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(accept.getInputStream());
-        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(accept.getOutputStream());
-        if (bufferedInputStream.available() == 0) {
-            accept.close();
-            return;
-        }
-        List<Integer> ints = new ArrayList<>();
-        while (bufferedInputStream.available() != 0) {
-            int read = bufferedInputStream.read();
-            ints.add(read);
-        }
-        String request = ints.stream()
-                .map(integer -> (char) integer.intValue())
-                .map(Object::toString)
-                .collect(Collectors.joining());
-        Scanner scanner = new Scanner(request);
-        List<String> requestLines = new ArrayList<>();
-        while (scanner.hasNext()) {
-            requestLines.add(scanner.nextLine());
-        }
-
-        if (getHomePage(requestLines)) {
-            loadHomePage(bufferedOutputStream);
-        } else if (getFile(requestLines)) {
-            if (isFavicon(requestLines)) {
-                loadFavicon(accept);
-            } else {
-                loadFile(accept, requestLines);
+    /**
+     * @return the next accepted connection, or null once the server is stopping
+     */
+    private SocketChannel accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+        } catch (ClosedChannelException exception) {
+            if (shouldStop) {
+                return null;
             }
-            loadHomePage(bufferedOutputStream);
-        } else if (fileForSaving(requestLines)) {
-            saveFile(request);
-            loadHomePage(bufferedOutputStream);
+            throw exception;
         }
-
-        accept.close();
+        if (shouldStop) {
+            channel.close();
+            return null;
+        }
+        return channel;
     }
 
-    private void loadFavicon(Socket accept) throws IOException {
-        String fileName = "./favicon.ico";
-        writeFileToSocket(accept, fileName);
+    /**
+     * Accepts on one channel, or with several acceptors on one channel per acceptor bound with SO_REUSEPORT. Each
+     * acceptor hands its connections to its own share of the event loops, so accepting scales with the cores and
+     * the acceptors never contend for a queue or a loop.
+     */
+    private void startNioListener() throws IOException {
+        EventLoop[] eventLoops = new EventLoop[settings.getEventLoops()];
+        Thread[] threads = new Thread[eventLoops.length];
+        ServerSocketChannel[] channels = ReusePort.bind(new InetSocketAddress(port), settings.getBacklog(),
+                Math.min(settings.getAcceptors(), eventLoops.length));
+        Thread[] acceptors = new Thread[channels.length];
+        boolean drained = false;
+        try {
+            serverChannels = channels;
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop(requestProcessor, metrics, admission, settings, tls, buffers);
+                threads[i] = new Thread(eventLoops[i], "event-loop-" + i);
+                threads[i].start();
+            }
+            log.info("Server starter at port " + port + " with " + eventLoops.length + " event loops"
+                    + (channels.length > 1 ? " behind " + channels.length + " acceptors" : "")
+                    + (tls != null ? " over TLS" : ""));
+            for (int i = 1; i < channels.length; i++) {
+                ServerSocketChannel channel = channels[i];
+                EventLoop[] group = getGroup(eventLoops, i, channels.length);
+                acceptors[i] = new Thread(() -> {
+                    try {
+                        acceptInto(channel, group);
+                    } catch (IOException exception) {
+                        // A closed channel leaves the port group, the kernel sends its connections to the others
+                        log.info(exception.toString());
+                        ReusePort.close(new ServerSocketChannel[]{channel});
+                    }
+                }, "acceptor-" + i);
+                acceptors[i].start();
+            }
+            acceptInto(channels[0], getGroup(eventLoops, 0, channels.length));
+            for (int i = 1; i < acceptors.length; i++) {
+                acceptors[i].join();
+            }
+            int idleClosed = 0;
+            int aborted = 0;
+            for (EventLoop eventLoop : eventLoops) {
+                eventLoop.drain(drainDeadline);
+            }
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].join();
+                idleClosed += eventLoops[i].getIdleClosed();
+                aborted += eventLoops[i].getAborted();
+            }
+            drained = true;
+            logStopped(idleClosed, aborted);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ReusePort.close(channels);
+            if (!drained) {
+                for (EventLoop eventLoop : eventLoops) {
+                    if (eventLoop != null) {
+                        eventLoop.shutdown();
+                    }
+                }
+            }
+        }
     }
 
-    private void writeFileToSocket(Socket accept, String fileName) throws IOException {
-        Path path = Paths.get(fileName);
-        if (Files.exists(path)) {
-            byte[] fileBytes = Files.readAllBytes(path);
-            HttpResponse httpResponse = HttpResponse.create(200, fileBytes, MimeType.undefined);
-            writeToSocket(accept, httpResponse.getBytes());
+    /**
+     * Spreads the connections accepted on the channel over the event loops round robin until the server stops.
+     */
+    private void acceptInto(ServerSocketChannel channel, EventLoop[] eventLoops) throws IOException {
+        int next = 0;
+        SocketChannel accepted;
+        while ((accepted = accept(channel)) != null) {
+            if (!admit(accepted)) {
+                continue;
+            }
+            eventLoops[next].register(accepted);
+            next = (next + 1) % eventLoops.length;
         }
     }
 
-    private void writeToSocket(Socket accept, byte[] total) throws IOException {
-        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(accept.getOutputStream());
-        bufferedOutputStream.write(total);
-        bufferedOutputStream.flush();
+    /**
+     * @return the event loops of an acceptor, every loop whose index leaves the acceptor index modulo the count
+     */
+    private static EventLoop[] getGroup(EventLoop[] eventLoops, int acceptor, int acceptors) {
+        EventLoop[] group = new EventLoop[(eventLoops.length - acceptor + acceptors - 1) / acceptors];
+        for (int i = 0; i < group.length; i++) {
+            group[i] = eventLoops[acceptor + i * acceptors];
+        }
+        return group;
     }
 
-    private boolean isFavicon(List<String> requestLines) {
-        return requestLines.get(0).contains("favicon.ico");
+    private void logStopped(int idleClosed, int aborted) {
+        stopReport = "Server stopped: " + drainedRequests.get() + " requests completed while draining, "
+                + idleClosed + " idle connections closed, " + aborted + " connections aborted";
+        log.info(stopReport);
     }
 
-    private void loadHomePage(BufferedOutputStream bufferedOutputStream) throws IOException {
-        Path path = Paths.get("Hello.html");
-        List<String> html = Files.lines(path).collect(Collectors.toList());
-        for (int i = 0; i < html.size(); i++) {
-            if (html.get(i).contains("<body>")) {
-                addFiles(html, i);
-                break;
+    private void startBlockingListener() throws IOException {
+        ExecutorService executorService = settings.getExecutorMode().createExecutor(settings.getPlatformThreads(),
+                settings.getQueueSize());
+        if (executorService instanceof ThreadPoolExecutor) {
+            metrics.setQueueDepth(((ThreadPoolExecutor) executorService).getQueue()::size);
+        }
+        boolean drained = false;
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            serverChannels = new ServerSocketChannel[]{channel};
+            channel.bind(new InetSocketAddress(port), settings.getBacklog());
+            log.info("Server starter at port " + port + " with " + settings.getExecutorMode() + " executor");
+            SocketChannel accepted;
+            while ((accepted = accept(channel)) != null) {
+                if (!admit(accepted)) {
+                    continue;
+                }
+                ConnectionTask task = new ConnectionTask(accepted);
+                connections.add(task);
+                try {
+                    executorService.execute(task);
+                } catch (RejectedExecutionException exception) {
+                    connections.remove(task);
+                    admission.release(task.client);
+                    reject(accepted, AdmissionControl.Rejection.QUEUE_FULL);
+                }
+            }
+            drainBlocking(executorService);
+            drained = true;
+        } finally {
+            if (!drained) {
+                executorService.shutdown();
             }
         }
-        HttpResponse httpResponse = HttpResponse.create(200, String.join("\n", html).getBytes(StandardCharsets.UTF_8),
-                MimeType.html);
-        bufferedOutputStream.write(httpResponse.getBytes());
-        bufferedOutputStream.flush();
-    }
-
-    private void loadFile(Socket accept, List<String> requestLines) throws IOException {
-        String fileName = requestLines.get(0).split(" ")[1].replace("%20", " ");
-        writeFileToSocket(accept, fileName);
-    }
-
-    private void saveFile(String request) throws IOException {
-        Pattern boundaryPattern = Pattern.compile("boundary=.+\r\n");
-        Matcher boundaryMatcher = boundaryPattern.matcher(request);
-        if (boundaryMatcher.find()) {
-            String keyValueBoundary = boundaryMatcher.group();
-            String delimiter = keyValueBoundary.split("=")[1];
-            delimiter = "--" + delimiter;
-            String[] requestParts = request.split(delimiter);
-            String file = requestParts[1];
-            Pattern fileInfoBoundary = Pattern.compile("\r\n\r\n");
-            Matcher fileBoundaryMatcher = fileInfoBoundary.matcher(file);
-            if (fileBoundaryMatcher.find()) {
-                int fileBoundaryStart = fileBoundaryMatcher.start();
-                Pattern filenameInfo = Pattern.compile("filename=.+\r\n");
-                Matcher filenameMatcher = filenameInfo.matcher(file);
-                if (filenameMatcher.find()) {
-                    String keyValueFilename = filenameMatcher.group();
-                    String filename = keyValueFilename.split("=")[1].replace("\"", "");
-                    filename = filename.substring(0, filename.length() - 2);
-                    int fileStart = fileBoundaryStart + 4;
-                    String pureFile = file.substring(fileStart, file.length() - 2);
-                    int[] fileInts = pureFile.chars().toArray();
-                    Path path = Paths.get(fileFolder, filename);
-                    FileOutputStream fileOutputStream = new FileOutputStream(path.toString());
-                    for (int fileInt : fileInts) {
-                        fileOutputStream.write(fileInt);
+    }
+
+    /**
+     * Lets the worker threads finish the connections they serve, closing the ones that wait for their next
+     * request, and closes what is left at the drain deadline.
+     */
+    private void drainBlocking(ExecutorService executorService) {
+        executorService.shutdown();
+        int idleClosed = 0;
+        try {
+            while (!executorService.awaitTermination(DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS)
+                    && System.currentTimeMillis() < drainDeadline) {
+                for (ConnectionTask task : connections) {
+                    // Removed right away, so a worker still on its way out is not counted again next poll
+                    if (task.betweenRequests && connections.remove(task)) {
+                        task.close();
+                        idleClosed++;
                     }
-                    fileOutputStream.flush();
                 }
             }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        int aborted = 0;
+        for (Runnable queued : executorService.shutdownNow()) {
+            if (queued instanceof ConnectionTask) {
+                ConnectionTask task = (ConnectionTask) queued;
+                connections.remove(task);
+                admission.release(task.client);
+                task.close();
+                aborted++;
+            }
+        }
+        for (ConnectionTask task : connections) {
+            task.close();
+            aborted++;
         }
+        logStopped(idleClosed, aborted);
     }
 
-    private boolean fileForSaving(List<String> requestLines) {
-        return requestLines.get(0).contains("POST");
+    /**
+     * Serves one connection on a worker thread. Tracked until it ends so a stopping server can close it.
+     */
+    private final class ConnectionTask implements Runnable {
+
+        private final SocketChannel channel;
+        private final InetAddress client;
+        private volatile boolean betweenRequests;
+
+        ConnectionTask(SocketChannel channel) {
+            this.channel = channel;
+            this.client = channel.socket().getInetAddress();
+        }
+
+        @Override
+        public void run() {
+            try {
+                process(this);
+            } catch (Exception exception) {
+                if (shouldStop && !channel.isOpen()) {
+                    log.fine("Closed " + client + " while stopping: " + exception);
+                } else {
+                    log.info(exception.toString());
+                    write500Error(channel, exception);
+                }
+            } finally {
+                connections.remove(this);
+                admission.release(client);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                log.info(exception.toString());
+            }
+        }
     }
 
-    private void addFiles(List<String> html, int i) throws IOException {
-        Path path = Paths.get(fileFolder);
-        Files.list(path).forEach(s -> html.add(i, getFileLine(s)));
+    private boolean admit(SocketChannel channel) {
+        AdmissionControl.Rejection rejection = admission.admit(channel.socket().getInetAddress());
+        if (rejection != null) {
+            reject(channel, rejection);
+            return false;
+        }
+        return true;
     }
 
-    private String getFileLine(Path s) {
-        String substring = s.toString();
-        String[] split = substring.split("/");
-        return "<a href=\"" + substring + "\">" + split[split.length - 1] + "<a>\n";
+    /**
+     * Answers 503 without reading the request, so an overloaded server spends almost nothing on the connection.
+     * TLS connections are just closed, as answering would take a handshake on the accepting thread.
+     */
+    private void reject(SocketChannel channel, AdmissionControl.Rejection rejection) {
+        metrics.connectionRejected(rejection);
+        try (SocketChannel rejected = channel) {
+            if (tls == null) {
+                HttpResponse response = HttpResponse.create(503, SERVICE_UNAVAILABLE, MimeType.text);
+                response.addHeader(HttpHeaders.RETRY_AFTER, String.valueOf(settings.getRetryAfter()));
+                response.setKeepAlive(false, 0);
+                response.writeTo(rejected);
+                rejected.shutdownOutput();
+            }
+        } catch (IOException exception) {
+            log.fine("Cannot reject " + channel + ": " + exception);
+        }
     }
 
-    private boolean getFile(List<String> requestLines) {
-        if (requestLines.size() != 0) {
-            String[] split = requestLines.get(0).split(" ");
-            Pattern pattern = Pattern.compile("/+.");
-            Matcher matcher = pattern.matcher(split[1]);
-            return split[0].equals("GET") && matcher.find();
+    private void write500Error(SocketChannel accept, Exception exception) {
+        try {
+            writeToSocket(accept, getErrorResponse(exception), null);
+            accept.close();
+        } catch (Exception ex) {
+            log.info("SOCKET EXCEPTION");
+            ex.printStackTrace();
         }
-        return false;
     }
 
-    private boolean getHomePage(List<String> requestLines) {
-        if (requestLines.size() != 0) {
-            String[] split = requestLines.get(0).split(" ");
-            return split[0].equals("GET") && split[1].equals("/");
+    private HttpResponse getErrorResponse(Exception exception) {
+        int status = exception instanceof HttpParseException ? ((HttpParseException) exception).getStatus() : 500;
+        return HttpResponse.create(status, exception.toString().getBytes(StandardCharsets.UTF_8), MimeType.text);
+    }
+
+    private void process(ConnectionTask task) throws IOException {
+        requestMatchers(task);
+    }
+
+    private void requestMatchers(ConnectionTask task) throws IOException {
+        SocketChannel accept = task.channel;
+        Socket socket = accept.socket();
+        socket.setSoTimeout(settings.getKeepAliveTimeout());
+        // Headers and file regions are separate writes, Nagle would hold the second back for a delayed ACK
+        socket.setTcpNoDelay(true);
+        InputStream inputStream = socket.getInputStream();
+        HttpRequestParser parser = new HttpRequestParser(requestProcessor);
+        byte[] bytes = new byte[READ_BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, 0);
+        ByteBuffer headerBuffer = buffers.lease(HttpResponse.HEADER_BUFFER_SIZE);
+        metrics.connectionOpened();
+        try {
+            for (int servedRequests = 0; ; servedRequests++) {
+                long start = 0;
+                HttpRequest request;
+                HttpResponse response;
+                try {
+                    while (true) {
+                        if (!parser.isStarted()) {
+                            start = System.nanoTime();
+                        }
+                        if (parser.parse(buffer)) {
+                            break;
+                        }
+                        if (parser.takeContinueExpected()) {
+                            accept.write(ByteBuffer.wrap(HttpResponse.CONTINUE));
+                        }
+                        task.betweenRequests = servedRequests > 0 && !parser.isStarted();
+                        int read = inputStream.read(bytes);
+                        task.betweenRequests = false;
+                        if (read == -1) {
+                            accept.close();
+                            return;
+                        }
+                        metrics.addBytesIn(read);
+                        buffer.clear();
+                        buffer.limit(read);
+                    }
+                    request = parser.getRequest();
+                    response = requestProcessor.process(request, servedRequests);
+                } catch (HttpParseException exception) {
+                    request = null;
+                    response = requestProcessor.error(exception);
+                }
+                writeToSocket(accept, response, headerBuffer);
+                requestProcessor.completed(task.client, request, response, System.nanoTime() - start);
+                if (!response.isKeepAlive()) {
+                    break;
+                }
+                parser.reset();
+            }
+        } catch (SocketTimeoutException exception) {
+            log.fine("Closing idle connection " + socket.getRemoteSocketAddress());
+        } finally {
+            metrics.connectionClosed();
+            parser.close();
+            buffers.release(headerBuffer);
         }
-        return false;
+        accept.close();
     }
 
-    private static class HttpResponse {
+    private HttpResponse getNotFound() {
+        return HttpResponse.create(404, "Not Found".getBytes(StandardCharsets.UTF_8), MimeType.text);
+    }
 
-        private final int status;
-        private final MimeType contentType;
-        private final byte[] body;
-        private final HashMap<String, String> headers;
+    private HttpResponse loadFavicon(HttpRequest request) throws IOException {
+        String fileName = "./favicon.ico";
+        return getFileResponse(request, fileName);
+    }
 
-        public static HttpResponse create(int status, byte[] body, MimeType contentType) {
-            return new HttpResponse(status, body, contentType);
+    private HttpResponse getFileResponse(HttpRequest request, String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        MimeType contentType = MimeType.getByFileName(fileName);
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (settings.isCompression() && contentType.isCompressible() && range == null) {
+            ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            HttpResponse encoded = encoding != null ? getEncodedResponse(request, path, contentType, encoding) : null;
+            if (encoded != null) {
+                return encoded;
+            }
+        }
+        if (fileCache != null && range == null) {
+            HttpResponse cached = fileCache.get(request, path, contentType);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException exception) {
+            return getNotFound();
+        }
+        if (!attributes.isRegularFile()) {
+            return getNotFound();
+        }
+        FileValidator validator = FileValidator.of(attributes);
+        if (validator.isNotModified(request)) {
+            return validator.notModified();
+        }
+        if (mappedFiles != null && attributes.size() >= settings.getMmapMinFileSize()) {
+            return getMappedResponse(request, mappedFiles.get(path, attributes), range, validator, contentType);
         }
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        HttpResponse response;
+        List<ByteRange> ranges = validator.isRangeAllowed(request) ? ByteRange.parse(range, file.size()) : null;
+        if (ranges == null) {
+            response = HttpResponse.create(200, file, contentType);
+        } else if (ranges.isEmpty()) {
+            response = HttpResponse.create(416, new byte[0], MimeType.text);
+            response.addHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + file.size());
+            file.close();
+        } else {
+            response = HttpResponse.createPartial(file, file.size(), ranges, contentType);
+        }
+        validator.addHeaders(response);
+        if (contentType.isCompressible()) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return response;
+    }
 
-        private HttpResponse(int status, byte[] body, MimeType contentType) {
-            this.status = status;
-            this.contentType = contentType;
-            this.body = body;
-            this.headers = new HashMap<>();
-            addHeaders();
+    private HttpResponse getMappedResponse(HttpRequest request, MappedFileCache.MappedFile file, String range,
+                                           FileValidator validator, MimeType contentType) {
+        HttpResponse response;
+        List<ByteRange> ranges = validator.isRangeAllowed(request) ? ByteRange.parse(range, file.size()) : null;
+        if (ranges == null) {
+            response = HttpResponse.create(200, file, contentType);
+        } else if (ranges.isEmpty()) {
+            response = HttpResponse.create(416, new byte[0], MimeType.text);
+            response.addHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + file.size());
+        } else {
+            response = HttpResponse.createPartial(file, ranges, contentType);
         }
+        validator.addHeaders(response);
+        if (contentType.isCompressible()) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return response;
+    }
 
-        private void addHeaders() {
-            headers.put(HttpHeaders.CONTENT_TYPE, contentType.getContentType());
-            headers.put(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length));
+    /**
+     * Serves a precompressed sibling such as {@code file.txt.gz} if it is at least as new as the file, otherwise
+     * the file compressed on the fly and cached. Compressing runs on the request thread, an event loop in NIO
+     * mode, so it is only done for files the compression cache admits, once per change of the file; the others
+     * are sent as is.
+     *
+     * @return the encoded response or null if the file should be sent as is
+     */
+    private HttpResponse getEncodedResponse(HttpRequest request, Path path, MimeType contentType,
+                                            ContentEncoding encoding) throws IOException {
+        if (encoding.getExtension() != null) {
+            Path sibling = path.resolveSibling(path.getFileName() + encoding.getExtension());
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                BasicFileAttributes siblingAttributes = Files.readAttributes(sibling, BasicFileAttributes.class);
+                if (siblingAttributes.isRegularFile()
+                        && siblingAttributes.lastModifiedTime().compareTo(attributes.lastModifiedTime()) >= 0) {
+                    FileValidator validator = FileValidator.of(siblingAttributes, encoding);
+                    HttpResponse response;
+                    if (validator.isNotModified(request)) {
+                        response = validator.notModified();
+                    } else {
+                        response = HttpResponse.create(200, FileChannel.open(sibling, StandardOpenOption.READ),
+                                contentType);
+                        validator.addHeaders(response);
+                    }
+                    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                    return response;
+                }
+            } catch (NoSuchFileException exception) {
+                log.fine("No precompressed file " + sibling);
+            }
         }
+        return compressionCache != null ? compressionCache.get(request, path, contentType, encoding) : null;
+    }
 
-        private byte[] getBytes() {
-            String headers = this.headers.entrySet().stream()
-                    .map(header -> header.getKey() + ": " + header.getValue() + crlf)
-                    .collect(Collectors.joining());
-            String requestHeader = "HTTP/1.1 " + status + crlf
-                    + headers
-                    + crlf;
-            return concatArrays(requestHeader.getBytes(StandardCharsets.UTF_8), body);
+    private void writeToSocket(SocketChannel accept, HttpResponse response, ByteBuffer headerBuffer)
+            throws IOException {
+        try {
+            boolean written;
+            do {
+                written = response.writeTo(accept, headerBuffer);
+            } while (!written);
+        } finally {
+            response.close();
         }
     }
+
+    private HttpResponse loadHomePage(HttpRequest request) throws IOException {
+        return directoryIndex.render(request);
+    }
+
+    private HttpResponse saveFile(HttpRequest request) throws IOException {
+        directoryIndex.invalidate();
+        return loadHomePage(request);
+    }
+
+    private HttpResponse loadFile(HttpRequest request) throws IOException {
+        String fileName = request.getTarget().replace("%20", " ");
+        return getFileResponse(request, fileName);
+    }
 }
@@ -0,0 +1,298 @@
+package com.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+import static com.server.MyServer.log;
+
+class NioConnection {
+
+    enum State {
+        READING,
+        WRITING,
+        CLOSED
+    }
+
+    private final ByteChannel channel;
+    private final TlsChannel tls;
+    private final SelectionKey key;
+    private final Runnable fileReady;
+    private final Runnable bodyReady;
+    private final RequestProcessor processor;
+    private final ServerMetrics metrics;
+    private final AdmissionControl admission;
+    private final ServerSettings settings;
+    private final InetAddress client;
+    private final BufferPool buffers;
+    private final ByteBuffer readBuffer;
+    private final ByteBuffer headerBuffer;
+    private final HttpRequestParser parser;
+    private HttpRequest request;
+    private HttpResponse response;
+    private Http2Connection http2;
+    private State state = State.READING;
+    private int servedRequests;
+    private long lastActivity = System.currentTimeMillis();
+    private long requestStart;
+
+    /**
+     * @param tls the TLS session over the socket, or null for plain HTTP
+     */
+    NioConnection(SocketChannel socket, TlsChannel tls, SelectionKey key, Executor eventLoop,
+                  RequestProcessor processor, ServerMetrics metrics, AdmissionControl admission,
+                  ServerSettings settings, BufferPool buffers) {
+        this.channel = tls != null ? tls : socket;
+        this.tls = tls;
+        this.key = key;
+        this.fileReady = () -> eventLoop.execute(this::onFileReady);
+        this.bodyReady = () -> eventLoop.execute(this::onBodyReady);
+        this.processor = processor;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.settings = settings;
+        this.client = socket.socket().getInetAddress();
+        this.buffers = buffers;
+        this.readBuffer = buffers.lease(MyServer.READ_BUFFER_SIZE);
+        this.headerBuffer = buffers.lease(HttpResponse.HEADER_BUFFER_SIZE);
+        this.parser = new HttpRequestParser(processor);
+        readBuffer.flip();
+        metrics.connectionOpened();
+    }
+
+    void onReadable() throws IOException {
+        int read;
+        do {
+            if (state != State.READING) {
+                return;
+            }
+            readBuffer.compact();
+            read = channel.read(readBuffer);
+            readBuffer.flip();
+            if (read == -1) {
+                close();
+                return;
+            }
+            if (tls != null && !tls.flush()) {
+                // Handshake messages wait for the socket
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            metrics.addBytesIn(read);
+            lastActivity = System.currentTimeMillis();
+            processRequests();
+            // The selector does not report bytes the TLS session has already taken off the socket
+        } while (read > 0 && tls != null && tls.hasBufferedInput());
+    }
+
+    void onWritable() throws IOException {
+        if (http2 != null) {
+            writeHttp2();
+            return;
+        }
+        if (state == State.READING && tls != null) {
+            if (tls.flush()) {
+                key.interestOps(SelectionKey.OP_READ);
+                onReadable();
+            }
+            return;
+        }
+        if (state != State.WRITING) {
+            return;
+        }
+        if (writeResponse()) {
+            processRequests();
+            if (tls != null && tls.hasBufferedInput()) {
+                onReadable();
+            }
+        }
+    }
+
+    /**
+     * Resumes writing a response that waited for its file to be read.
+     */
+    private void onFileReady() {
+        if (state != State.CLOSED) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Reads the rest of a request body that waited for the body sink, starting with the bytes already read.
+     */
+    private void onBodyReady() {
+        if (state != State.READING) {
+            return;
+        }
+        try {
+            key.interestOps(SelectionKey.OP_READ);
+            onReadable();
+        } catch (IOException exception) {
+            log.info(exception.toString());
+            close();
+        }
+    }
+
+    boolean isIdle(long now, long timeout) {
+        return state == State.READING && (http2 == null || !http2.hasOpenStreams()) && !parser.isWaitingForBody()
+                && now - lastActivity > timeout;
+    }
+
+    /**
+     * @return true if the connection has answered a request and waits for the first byte of the next one, or is
+     * an HTTP/2 connection without open streams
+     */
+    boolean isBetweenRequests() {
+        if (http2 != null) {
+            return state == State.READING && !http2.hasOpenStreams();
+        }
+        return state == State.READING && servedRequests > 0 && !parser.isStarted();
+    }
+
+    void close() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        metrics.connectionClosed();
+        admission.release(client);
+        key.cancel();
+        parser.close();
+        if (http2 != null) {
+            http2.close();
+        }
+        try {
+            if (response != null) {
+                response.close();
+            }
+        } catch (IOException exception) {
+            log.info(exception.toString());
+        }
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            log.info(exception.toString());
+        }
+        buffers.release(readBuffer);
+        buffers.release(headerBuffer);
+    }
+
+    /**
+     * Answers every complete request in the read buffer in order, stopping when a response cannot be written
+     * without blocking or more bytes are needed.
+     */
+    private void processRequests() throws IOException {
+        while (state == State.READING) {
+            if (http2 == null && settings.isHttp2() && servedRequests == 0 && !parser.isStarted()
+                    && Http2Connection.matchesPreface(readBuffer)) {
+                if (readBuffer.remaining() < Http2Connection.PREFACE.length) {
+                    return;
+                }
+                http2 = Http2Connection.create(channel, client, processor, settings, buffers, fileReady);
+            }
+            if (http2 != null) {
+                http2.onInput(readBuffer);
+                writeHttp2();
+                return;
+            }
+            try {
+                if (!parser.isStarted()) {
+                    requestStart = System.nanoTime();
+                }
+                if (!parser.parse(readBuffer)) {
+                    if (parser.takeContinueExpected() && !writeContinue()) {
+                        return;
+                    }
+                    if (parser.isWaitingForBody()) {
+                        // The rest of the body stays in the read buffer and the socket until the sink has room
+                        key.interestOps(0);
+                        parser.whenBodyReady(bodyReady);
+                    }
+                    return;
+                }
+                request = parser.getRequest();
+                if (settings.isHttp2() && tls == null && Http2Connection.isUpgrade(request)) {
+                    http2 = Http2Connection.upgrade(channel, client, processor, settings, buffers, fileReady,
+                            request, requestStart);
+                    parser.reset();
+                    request = null;
+                    servedRequests++;
+                    continue;
+                }
+                response = processor.process(request, servedRequests);
+            } catch (IOException exception) {
+                request = null;
+                response = processor.error(exception);
+            }
+            state = State.WRITING;
+            if (!writeResponse()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends 100 Continue. The socket has taken the previous response already, so the few bytes fit; if they do
+     * not, the connection is closed rather than left with half an interim response.
+     */
+    private boolean writeContinue() throws IOException {
+        ByteBuffer interim = ByteBuffer.wrap(HttpResponse.CONTINUE);
+        channel.write(interim);
+        if (interim.hasRemaining()) {
+            log.info("Cannot send 100 Continue to " + client);
+            close();
+            return false;
+        }
+        if (tls != null && !tls.flush()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        return true;
+    }
+
+    /**
+     * Writes what the HTTP/2 connection has to send, waiting for the socket if it does not take everything, and
+     * closes the connection once it is finished.
+     */
+    private void writeHttp2() throws IOException {
+        boolean flushed = http2.write() && (tls == null || tls.flush());
+        lastActivity = System.currentTimeMillis();
+        if (flushed && http2.isFinished()) {
+            close();
+            return;
+        }
+        key.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * @return true once the response is written, otherwise the connection waits for the socket or for the file
+     */
+    private boolean writeResponse() throws IOException {
+        boolean written = response.writeTo(channel, headerBuffer);
+        boolean flushed = tls == null || tls.flush();
+        if (!written || !flushed) {
+            if (!written && flushed && response.isWaitingForFile()) {
+                key.interestOps(0);
+                response.whenFileReady(fileReady);
+            } else {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+            return false;
+        }
+        lastActivity = System.currentTimeMillis();
+        processor.completed(client, request, response, System.nanoTime() - requestStart);
+        if (!response.isKeepAlive()) {
+            close();
+            return false;
+        }
+        request = null;
+        response = null;
+        servedRequests++;
+        parser.reset();
+        state = State.READING;
+        key.interestOps(SelectionKey.OP_READ);
+        return true;
+    }
+}
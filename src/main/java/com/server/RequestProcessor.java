@@ -0,0 +1,23 @@
+package com.server;
+
+import java.net.InetAddress;
+
+interface RequestProcessor extends BodySink.Factory {
+    /**
+     * Handles a request and decides whether the connection stays open after the response.
+     *
+     * @param servedRequests number of requests already answered on the connection
+     */
+    HttpResponse process(HttpRequest request, int servedRequests);
+
+    HttpResponse error(Exception exception);
+
+    /**
+     * Called once a response has been written completely.
+     *
+     * @param client address of the client
+     * @param request the request that was answered, or null if it could not be parsed
+     * @param elapsedNanos time since the first byte of the request arrived
+     */
+    void completed(InetAddress client, HttpRequest request, HttpResponse response, long elapsedNanos);
+}
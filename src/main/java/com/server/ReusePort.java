@@ -0,0 +1,74 @@
+package com.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+import static com.server.MyServer.log;
+
+/**
+ * Binds several listening channels to one port with SO_REUSEPORT. The kernel then spreads new connections over
+ * them by a hash of their addresses and ports, so every channel can have an accepting thread of its own instead
+ * of all connections going through one accept queue. The option is in the JDK since Java 9 and works on Linux and
+ * the BSDs; it is looked up reflectively so the server still runs on Java 8, with a single channel.
+ */
+final class ReusePort {
+
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePort();
+
+    private ReusePort() {
+    }
+
+    /**
+     * @return the bound channels, only one if the platform cannot share the port
+     */
+    static ServerSocketChannel[] bind(InetSocketAddress address, int backlog, int count) throws IOException {
+        ServerSocketChannel first = ServerSocketChannel.open();
+        if (count > 1 && (SO_REUSEPORT == null || !first.supportedOptions().contains(SO_REUSEPORT))) {
+            log.info("SO_REUSEPORT is not available, accepting from a single channel");
+            count = 1;
+        }
+        ServerSocketChannel[] channels = new ServerSocketChannel[count];
+        channels[0] = first;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (channels[i] == null) {
+                    channels[i] = ServerSocketChannel.open();
+                }
+                if (count > 1) {
+                    channels[i].setOption(SO_REUSEPORT, true);
+                }
+                // With port 0 the first channel picks the port, the others have to join it
+                channels[i].bind(i == 0 ? address : channels[0].getLocalAddress(), backlog);
+            }
+        } catch (IOException exception) {
+            close(channels);
+            throw exception;
+        }
+        return channels;
+    }
+
+    static void close(ServerSocketChannel[] channels) {
+        for (ServerSocketChannel channel : channels) {
+            if (channel == null) {
+                continue;
+            }
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                log.info(exception.toString());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePort() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException exception) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the method and path of a request to a handler. The routes of each method are compiled into a character
+ * trie as they are registered, so a lookup walks the path once without allocating. An exact route wins over the
+ * longest matching prefix route, requests matching neither go to the fallback handler.
+ * <p>
+ * Routes have to be registered before the server starts, lookups are not synchronized with registration.
+ */
+public final class Router {
+
+    private final Map<String, Node> methods = new HashMap<>();
+    private final Route fallback;
+
+    public Router(Handler fallback) {
+        this.fallback = new Route(fallback, ServerMetrics.Route.OTHER, null);
+    }
+
+    /**
+     * Routes requests for exactly this path, ignoring the query string.
+     */
+    public Router add(String method, String path, Handler handler) {
+        return add(method, path, ServerMetrics.Route.OTHER, handler, null);
+    }
+
+    /**
+     * Routes requests for every path starting with the prefix, unless a more specific route matches.
+     */
+    public Router addPrefix(String method, String prefix, Handler handler) {
+        return addPrefix(method, prefix, ServerMetrics.Route.OTHER, handler, null);
+    }
+
+    /**
+     * @param bodySink consumes the request bodies of the route as they arrive, or null to buffer them
+     */
+    Router add(String method, String path, ServerMetrics.Route metricsRoute, Handler handler,
+               BodySink.Factory bodySink) {
+        Node node = insert(method, path);
+        if (node.exact != null) {
+            throw new IllegalArgumentException("Route " + method + " " + path + " is already registered");
+        }
+        node.exact = new Route(handler, metricsRoute, bodySink);
+        return this;
+    }
+
+    Router addPrefix(String method, String prefix, ServerMetrics.Route metricsRoute, Handler handler,
+                     BodySink.Factory bodySink) {
+        Node node = insert(method, prefix);
+        if (node.prefix != null) {
+            throw new IllegalArgumentException("Route " + method + " " + prefix + "* is already registered");
+        }
+        node.prefix = new Route(handler, metricsRoute, bodySink);
+        return this;
+    }
+
+    /**
+     * Looks the route of a request up once and keeps it in the request for the later stages.
+     */
+    Route route(HttpRequest request) {
+        Route route = request.getRoute();
+        if (route == null) {
+            route = match(request.getMethod(), request.getTarget());
+            request.setRoute(route);
+        }
+        return route;
+    }
+
+    Route match(String method, String target) {
+        Node node = methods.get(method);
+        if (node == null) {
+            return fallback;
+        }
+        Route matched = node.prefix;
+        int end = target.indexOf('?');
+        if (end == -1) {
+            end = target.length();
+        }
+        for (int i = 0; i < end && node != null; i++) {
+            node = node.child(target.charAt(i));
+            if (node != null && node.prefix != null) {
+                matched = node.prefix;
+            }
+        }
+        if (node != null && node.exact != null) {
+            return node.exact;
+        }
+        return matched != null ? matched : fallback;
+    }
+
+    private Node insert(String method, String path) {
+        Node node = methods.computeIfAbsent(method, key -> new Node());
+        for (int i = 0; i < path.length(); i++) {
+            Node child = node.child(path.charAt(i));
+            node = child != null ? child : node.addChild(path.charAt(i));
+        }
+        return node;
+    }
+
+    static final class Route {
+
+        private final Handler handler;
+        private final ServerMetrics.Route metricsRoute;
+        private final BodySink.Factory bodySink;
+
+        Route(Handler handler, ServerMetrics.Route metricsRoute, BodySink.Factory bodySink) {
+            this.handler = handler;
+            this.metricsRoute = metricsRoute;
+            this.bodySink = bodySink;
+        }
+
+        Handler getHandler() {
+            return handler;
+        }
+
+        ServerMetrics.Route getMetricsRoute() {
+            return metricsRoute;
+        }
+
+        BodySink.Factory getBodySink() {
+            return bodySink;
+        }
+    }
+
+    /**
+     * A trie node; paths branch little, so the children are scanned linearly.
+     */
+    private static final class Node {
+
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private Route exact;
+        private Route prefix;
+
+        Node child(char label) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == label) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char label) {
+            Node child = new Node();
+            labels = Arrays.copyOf(labels, labels.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            labels[labels.length - 1] = label;
+            children[children.length - 1] = child;
+            return child;
+        }
+    }
+}
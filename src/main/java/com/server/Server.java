@@ -3,5 +3,19 @@ package com.server;
 interface Server {
     void run() throws Exception;
 
+    /**
+     * Stops accepting connections and drains the open ones for the configured drain timeout, returning once the
+     * server has stopped.
+     */
     void stop() throws Exception;
+
+    /**
+     * Like {@link #stop()}, closing whatever is still open once the drain timeout passes.
+     */
+    void stop(long drainTimeoutMillis) throws Exception;
+
+    /**
+     * @return what the drain completed and aborted, or null until the server has stopped
+     */
+    String getStopReport();
 }
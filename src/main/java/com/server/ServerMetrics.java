@@ -0,0 +1,231 @@
+package com.server;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Request counters and latency histograms built from {@link LongAdder}s, so recording neither locks nor allocates
+ * and can stay on in production. {@link #scrape()} renders them in the Prometheus text format.
+ */
+public class ServerMetrics {
+
+    enum Route {
+        HOME, FILE, FAVICON, UPLOAD, METRICS, OTHER
+    }
+
+    private static final double[] BUCKET_SECONDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+    private static final String[] BUCKET_LABELS = new String[BUCKET_SECONDS.length];
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+            BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKET_SECONDS[i]).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    private final LongAdder[][] requests = new LongAdder[Route.values().length][MAX_STATUS - MIN_STATUS + 2];
+    private final LongAdder[][] latencyBuckets = new LongAdder[Route.values().length][BUCKET_NANOS.length + 1];
+    private final LongAdder[] latencySums = new LongAdder[Route.values().length];
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder[] rejectedConnections = new LongAdder[AdmissionControl.Rejection.values().length];
+    private final Map<String, FileCache> caches = new LinkedHashMap<>();
+    private volatile IntSupplier queueDepth;
+    private volatile IntSupplier admittedConnections;
+    private volatile LongSupplier accessLogDropped;
+    private volatile BufferPool bufferPool;
+    private volatile MappedFileCache mappedFiles;
+
+    public ServerMetrics() {
+        for (int route = 0; route < requests.length; route++) {
+            for (int status = 0; status < requests[route].length; status++) {
+                requests[route][status] = new LongAdder();
+            }
+            for (int bucket = 0; bucket < latencyBuckets[route].length; bucket++) {
+                latencyBuckets[route][bucket] = new LongAdder();
+            }
+            latencySums[route] = new LongAdder();
+        }
+        for (int i = 0; i < rejectedConnections.length; i++) {
+            rejectedConnections[i] = new LongAdder();
+        }
+    }
+
+    void recordRequest(Route route, int status, long elapsedNanos, long sentBytes) {
+        int statusIndex = status < MIN_STATUS || status > MAX_STATUS ? requests[0].length - 1 : status - MIN_STATUS;
+        requests[route.ordinal()][statusIndex].increment();
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && elapsedNanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets[route.ordinal()][bucket].increment();
+        latencySums[route.ordinal()].add(elapsedNanos);
+        bytesOut.add(sentBytes);
+    }
+
+    void addBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    void connectionRejected(AdmissionControl.Rejection rejection) {
+        rejectedConnections[rejection.ordinal()].increment();
+    }
+
+    /**
+     * @param queueDepth supplies the number of connections waiting for a worker thread, or null if there is no queue
+     */
+    void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @param admittedConnections supplies the connections counted against the connection limit
+     */
+    void setAdmittedConnections(IntSupplier admittedConnections) {
+        this.admittedConnections = admittedConnections;
+    }
+
+    void setAccessLogDropped(LongSupplier accessLogDropped) {
+        this.accessLogDropped = accessLogDropped;
+    }
+
+    void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    void setMappedFiles(MappedFileCache mappedFiles) {
+        this.mappedFiles = mappedFiles;
+    }
+
+    synchronized void addCache(String name, FileCache cache) {
+        caches.put(name, cache);
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        header(out, "http_requests_total", "counter", "Requests answered, by route and status.");
+        for (Route route : Route.values()) {
+            LongAdder[] statuses = requests[route.ordinal()];
+            for (int i = 0; i < statuses.length; i++) {
+                long count = statuses[i].sum();
+                if (count > 0) {
+                    out.append("http_requests_total{route=\"").append(label(route)).append("\",status=\"")
+                            .append(i == statuses.length - 1 ? "other" : String.valueOf(i + MIN_STATUS))
+                            .append("\"} ").append(count).append('\n');
+                }
+            }
+        }
+        header(out, "http_request_duration_seconds", "histogram",
+                "Time from the first byte of a request to the last byte of its response.");
+        for (Route route : Route.values()) {
+            LongAdder[] buckets = latencyBuckets[route.ordinal()];
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append("http_request_duration_seconds_bucket{route=\"").append(label(route)).append("\",le=\"")
+                        .append(i < BUCKET_SECONDS.length ? BUCKET_LABELS[i] : "+Inf")
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("http_request_duration_seconds_sum{route=\"").append(label(route)).append("\"} ")
+                    .append(latencySums[route.ordinal()].sum() / 1e9).append('\n');
+            out.append("http_request_duration_seconds_count{route=\"").append(label(route)).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        sample(out, "http_received_bytes_total", "counter", "Bytes read from clients.", bytesIn.sum());
+        sample(out, "http_sent_bytes_total", "counter", "Bytes of complete responses written to clients.",
+                bytesOut.sum());
+        sample(out, "http_active_connections", "gauge", "Open client connections.", activeConnections.sum());
+        header(out, "http_rejected_connections_total", "counter", "Connections turned away with 503, by reason.");
+        for (AdmissionControl.Rejection rejection : AdmissionControl.Rejection.values()) {
+            out.append("http_rejected_connections_total{reason=\"").append(rejection.name().toLowerCase())
+                    .append("\"} ").append(rejectedConnections[rejection.ordinal()].sum()).append('\n');
+        }
+        IntSupplier admitted = admittedConnections;
+        if (admitted != null) {
+            sample(out, "http_admitted_connections", "gauge",
+                    "Connections counted against the connection limit, including those waiting for a thread.",
+                    admitted.getAsInt());
+        }
+        IntSupplier depth = queueDepth;
+        if (depth != null) {
+            sample(out, "http_executor_queue_depth", "gauge", "Connections waiting for a worker thread.",
+                    depth.getAsInt());
+        }
+        LongSupplier dropped = accessLogDropped;
+        if (dropped != null) {
+            sample(out, "access_log_dropped_total", "counter",
+                    "Access log entries dropped because the buffer was full.", dropped.getAsLong());
+        }
+        BufferPool buffers = bufferPool;
+        if (buffers != null) {
+            sample(out, "buffer_pool_leased_bytes", "gauge", "Direct buffer bytes in use by connections and files.",
+                    buffers.getLeasedBytes());
+            sample(out, "buffer_pool_idle_bytes", "gauge", "Direct buffer bytes pooled for reuse.",
+                    buffers.getIdleBytes());
+            sample(out, "buffer_pool_allocated_bytes_total", "counter", "Direct buffer bytes allocated.",
+                    buffers.getAllocatedBytes());
+        }
+        MappedFileCache mapped = mappedFiles;
+        if (mapped != null) {
+            sample(out, "mapped_segment_hits_total", "counter", "Mapped file segments reused by a response.",
+                    mapped.getHits());
+            sample(out, "mapped_segment_misses_total", "counter", "File segments that had to be mapped.",
+                    mapped.getMisses());
+            sample(out, "mapped_segment_evictions_total", "counter", "Mapped file segments evicted.",
+                    mapped.getEvictions());
+            sample(out, "mapped_bytes", "gauge", "Bytes of files mapped into memory.", mapped.getSize());
+        }
+        if (!caches.isEmpty()) {
+            header(out, "file_cache_hits_total", "counter", "Responses served from a file cache.");
+            caches.forEach((name, cache) -> cacheSample(out, "file_cache_hits_total", name, cache.getHits()));
+            header(out, "file_cache_misses_total", "counter", "File cache lookups that had to read the file.");
+            caches.forEach((name, cache) -> cacheSample(out, "file_cache_misses_total", name, cache.getMisses()));
+            header(out, "file_cache_evictions_total", "counter", "Entries evicted from a file cache.");
+            caches.forEach((name, cache) ->
+                    cacheSample(out, "file_cache_evictions_total", name, cache.getEvictions()));
+            header(out, "file_cache_bytes", "gauge", "Off-heap bytes held by a file cache.");
+            caches.forEach((name, cache) -> cacheSample(out, "file_cache_bytes", name, cache.getSize()));
+        }
+        return out.toString();
+    }
+
+    private static String label(Route route) {
+        return route.name().toLowerCase();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String type, String help, long value) {
+        header(out, name, type, help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void cacheSample(StringBuilder out, String name, String cache, long value) {
+        out.append(name).append("{cache=\"").append(cache).append("\"} ").append(value).append('\n');
+    }
+}
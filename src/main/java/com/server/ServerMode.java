@@ -0,0 +1,15 @@
+package com.server;
+
+public enum ServerMode {
+    BLOCKING,
+    NIO;
+
+    public static ServerMode getByName(String name) {
+        for (ServerMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown server mode " + name);
+    }
+}
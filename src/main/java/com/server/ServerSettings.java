@@ -0,0 +1,633 @@
+package com.server;
+
+public class ServerSettings {
+
+    private ServerMode mode = ServerMode.BLOCKING;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private int acceptors = 1;
+    private ExecutorMode executorMode = ExecutorMode.PLATFORM;
+    private int platformThreads = 10;
+    private int ioThreads;
+    private long bufferPoolBytes = 64 << 20;
+    private boolean bufferLeakDetection;
+    private int keepAliveTimeout = 15000;
+    private int maxKeepAliveRequests = 100;
+    private int queueSize = 100;
+    private int maxConnections = 10000;
+    private int maxConnectionsPerClient;
+    private int backlog = 1024;
+    private int retryAfter = 1;
+    private int drainTimeout = 30000;
+    private long cacheBytes;
+    private long cacheMaxFileSize = 1 << 20;
+    private long mmapBytes;
+    private long mmapMinFileSize = 16 << 20;
+    private int indexPageSize = 1000;
+    private boolean compression = true;
+    private long compressionMaxFileSize = 4 << 20;
+    private long compressionCacheBytes = 64 << 20;
+    private String mimeTypes;
+    private String metricsPath = "";
+    private String accessLog;
+    private AccessLogFormat accessLogFormat = AccessLogFormat.COMBINED;
+    private AccessLogPolicy accessLogPolicy = AccessLogPolicy.DROP;
+    private int accessLogBufferSize = 8192;
+    private long accessLogMaxBytes = 100 << 20;
+    private long accessLogRotateInterval = 24 * 60 * 60 * 1000;
+    private String tlsKeyStore;
+    private String tlsKeyStorePassword = "";
+    private String tlsKeyStoreType = "PKCS12";
+    private String tlsProtocols = "TLSv1.3,TLSv1.2";
+    private String tlsCipherSuites;
+    private int tlsSessionCacheSize = 20480;
+    private int tlsSessionTimeout = 86400;
+    private boolean http2 = true;
+    private int http2MaxConcurrentStreams = 100;
+    private int http2InitialWindowSize = 1048576;
+
+    public static ServerSettings fromSystemProperties() {
+        ServerSettings settings = new ServerSettings();
+        settings.withMode(ServerMode.getByName(System.getProperty("server.mode", settings.mode.name())));
+        settings.withEventLoops(Integer.getInteger("server.eventLoops", settings.eventLoops));
+        settings.withAcceptors(Integer.getInteger("server.acceptors", settings.acceptors));
+        settings.withExecutorMode(ExecutorMode.getByName(System.getProperty("server.executor",
+                settings.executorMode.name())));
+        settings.withPlatformThreads(Integer.getInteger("server.threads", settings.platformThreads));
+        settings.withIoThreads(Integer.getInteger("server.io.threads", settings.ioThreads));
+        settings.withBufferPoolBytes(Long.getLong("server.buffers.maxPooledBytes", settings.bufferPoolBytes));
+        settings.withBufferLeakDetection(Boolean.parseBoolean(System.getProperty("server.buffers.leakDetection",
+                String.valueOf(settings.bufferLeakDetection))));
+        settings.withKeepAliveTimeout(Integer.getInteger("server.keepAliveTimeout", settings.keepAliveTimeout));
+        settings.withMaxKeepAliveRequests(Integer.getInteger("server.maxKeepAliveRequests",
+                settings.maxKeepAliveRequests));
+        settings.withQueueSize(Integer.getInteger("server.queueSize", settings.queueSize));
+        settings.withMaxConnections(Integer.getInteger("server.maxConnections", settings.maxConnections));
+        settings.withMaxConnectionsPerClient(Integer.getInteger("server.maxConnectionsPerClient",
+                settings.maxConnectionsPerClient));
+        settings.withBacklog(Integer.getInteger("server.backlog", settings.backlog));
+        settings.withRetryAfter(Integer.getInteger("server.retryAfter", settings.retryAfter));
+        settings.withDrainTimeout(Integer.getInteger("server.drainTimeout", settings.drainTimeout));
+        settings.withCacheBytes(Long.getLong("server.cache.bytes", settings.cacheBytes));
+        settings.withCacheMaxFileSize(Long.getLong("server.cache.maxFileSize", settings.cacheMaxFileSize));
+        settings.withMmapBytes(Long.getLong("server.mmap.bytes", settings.mmapBytes));
+        settings.withMmapMinFileSize(Long.getLong("server.mmap.minFileSize", settings.mmapMinFileSize));
+        settings.withIndexPageSize(Integer.getInteger("server.index.pageSize", settings.indexPageSize));
+        settings.withCompression(Boolean.parseBoolean(System.getProperty("server.compression",
+                String.valueOf(settings.compression))));
+        settings.withCompressionMaxFileSize(Long.getLong("server.compression.maxFileSize",
+                settings.compressionMaxFileSize));
+        settings.withCompressionCacheBytes(Long.getLong("server.compression.cacheBytes",
+                settings.compressionCacheBytes));
+        settings.withMimeTypes(System.getProperty("server.mimeTypes"));
+        settings.withMetricsPath(System.getProperty("server.metrics.path", settings.metricsPath));
+        settings.withAccessLog(System.getProperty("server.accessLog", settings.accessLog));
+        settings.withAccessLogFormat(AccessLogFormat.getByName(System.getProperty("server.accessLog.format",
+                settings.accessLogFormat.name())));
+        settings.withAccessLogPolicy(AccessLogPolicy.getByName(System.getProperty("server.accessLog.policy",
+                settings.accessLogPolicy.name())));
+        settings.withAccessLogBufferSize(Integer.getInteger("server.accessLog.bufferSize",
+                settings.accessLogBufferSize));
+        settings.withAccessLogMaxBytes(Long.getLong("server.accessLog.maxBytes", settings.accessLogMaxBytes));
+        settings.withAccessLogRotateInterval(Long.getLong("server.accessLog.rotateInterval",
+                settings.accessLogRotateInterval));
+        settings.withTlsKeyStore(System.getProperty("server.tls.keyStore", settings.tlsKeyStore));
+        settings.withTlsKeyStorePassword(System.getProperty("server.tls.keyStorePassword",
+                settings.tlsKeyStorePassword));
+        settings.withTlsKeyStoreType(System.getProperty("server.tls.keyStoreType", settings.tlsKeyStoreType));
+        settings.withTlsProtocols(System.getProperty("server.tls.protocols", settings.tlsProtocols));
+        settings.withTlsCipherSuites(System.getProperty("server.tls.cipherSuites", settings.tlsCipherSuites));
+        settings.withTlsSessionCacheSize(Integer.getInteger("server.tls.sessionCacheSize",
+                settings.tlsSessionCacheSize));
+        settings.withTlsSessionTimeout(Integer.getInteger("server.tls.sessionTimeout", settings.tlsSessionTimeout));
+        settings.withHttp2(Boolean.parseBoolean(System.getProperty("server.http2", String.valueOf(settings.http2))));
+        settings.withHttp2MaxConcurrentStreams(Integer.getInteger("server.http2.maxConcurrentStreams",
+                settings.http2MaxConcurrentStreams));
+        settings.withHttp2InitialWindowSize(Integer.getInteger("server.http2.initialWindowSize",
+                settings.http2InitialWindowSize));
+        return settings;
+    }
+
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    public ServerSettings withMode(ServerMode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public ServerSettings withEventLoops(int eventLoops) {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("Illegal event loop count " + eventLoops);
+        }
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * @param acceptors listening channels sharing the port with SO_REUSEPORT in nio mode, each accepting on a
+     *                  thread of its own for its share of the event loops
+     */
+    public ServerSettings withAcceptors(int acceptors) {
+        if (acceptors < 1) {
+            throw new IllegalArgumentException("Illegal acceptor count " + acceptors);
+        }
+        this.acceptors = acceptors;
+        return this;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public ServerSettings withExecutorMode(ExecutorMode executorMode) {
+        this.executorMode = executorMode;
+        return this;
+    }
+
+    public int getPlatformThreads() {
+        return platformThreads;
+    }
+
+    public ServerSettings withPlatformThreads(int platformThreads) {
+        if (platformThreads < 1) {
+            throw new IllegalArgumentException("Illegal thread count " + platformThreads);
+        }
+        this.platformThreads = platformThreads;
+        return this;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * @param ioThreads threads reading and writing files for the connections, 0 to do it on their own threads
+     */
+    public ServerSettings withIoThreads(int ioThreads) {
+        if (ioThreads < 0) {
+            throw new IllegalArgumentException("Illegal I/O thread count " + ioThreads);
+        }
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    public long getBufferPoolBytes() {
+        return bufferPoolBytes;
+    }
+
+    /**
+     * @param bufferPoolBytes idle direct buffer bytes kept for reuse besides the small caches of the event loops
+     */
+    public ServerSettings withBufferPoolBytes(long bufferPoolBytes) {
+        if (bufferPoolBytes < 0) {
+            throw new IllegalArgumentException("Illegal buffer pool size " + bufferPoolBytes);
+        }
+        this.bufferPoolBytes = bufferPoolBytes;
+        return this;
+    }
+
+    public boolean isBufferLeakDetection() {
+        return bufferLeakDetection;
+    }
+
+    public ServerSettings withBufferLeakDetection(boolean bufferLeakDetection) {
+        this.bufferLeakDetection = bufferLeakDetection;
+        return this;
+    }
+
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public ServerSettings withKeepAliveTimeout(int keepAliveTimeout) {
+        if (keepAliveTimeout < 1) {
+            throw new IllegalArgumentException("Illegal keep-alive timeout " + keepAliveTimeout);
+        }
+        this.keepAliveTimeout = keepAliveTimeout;
+        return this;
+    }
+
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    public ServerSettings withMaxKeepAliveRequests(int maxKeepAliveRequests) {
+        if (maxKeepAliveRequests < 1) {
+            throw new IllegalArgumentException("Illegal keep-alive request limit " + maxKeepAliveRequests);
+        }
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+        return this;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @param queueSize connections that may wait for a platform thread before new ones are rejected
+     */
+    public ServerSettings withQueueSize(int queueSize) {
+        if (queueSize < 0) {
+            throw new IllegalArgumentException("Illegal queue size " + queueSize);
+        }
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public ServerSettings withMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Illegal connection limit " + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public int getMaxConnectionsPerClient() {
+        return maxConnectionsPerClient;
+    }
+
+    /**
+     * @param maxConnectionsPerClient open connections allowed per client address, 0 for no limit
+     */
+    public ServerSettings withMaxConnectionsPerClient(int maxConnectionsPerClient) {
+        if (maxConnectionsPerClient < 0) {
+            throw new IllegalArgumentException("Illegal connection limit per client " + maxConnectionsPerClient);
+        }
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+        return this;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public ServerSettings withBacklog(int backlog) {
+        if (backlog < 1) {
+            throw new IllegalArgumentException("Illegal accept backlog " + backlog);
+        }
+        this.backlog = backlog;
+        return this;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @param retryAfter seconds rejected clients are asked to wait before retrying
+     */
+    public ServerSettings withRetryAfter(int retryAfter) {
+        if (retryAfter < 0) {
+            throw new IllegalArgumentException("Illegal retry delay " + retryAfter);
+        }
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    public int getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * @param drainTimeout milliseconds a stopping server waits for in-flight requests before closing them
+     */
+    public ServerSettings withDrainTimeout(int drainTimeout) {
+        if (drainTimeout < 0) {
+            throw new IllegalArgumentException("Illegal drain timeout " + drainTimeout);
+        }
+        this.drainTimeout = drainTimeout;
+        return this;
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    public ServerSettings withCacheBytes(long cacheBytes) {
+        if (cacheBytes < 0) {
+            throw new IllegalArgumentException("Illegal cache size " + cacheBytes);
+        }
+        this.cacheBytes = cacheBytes;
+        return this;
+    }
+
+    public long getCacheMaxFileSize() {
+        return cacheMaxFileSize;
+    }
+
+    public ServerSettings withCacheMaxFileSize(long cacheMaxFileSize) {
+        if (cacheMaxFileSize < 0 || cacheMaxFileSize > Integer.MAX_VALUE - 8192) {
+            throw new IllegalArgumentException("Illegal cached file size " + cacheMaxFileSize);
+        }
+        this.cacheMaxFileSize = cacheMaxFileSize;
+        return this;
+    }
+
+    public long getMmapBytes() {
+        return mmapBytes;
+    }
+
+    /**
+     * @param mmapBytes bytes of large files kept memory mapped, 0 sends them with {@code transferTo} instead
+     */
+    public ServerSettings withMmapBytes(long mmapBytes) {
+        if (mmapBytes < 0) {
+            throw new IllegalArgumentException("Illegal mapped size " + mmapBytes);
+        }
+        this.mmapBytes = mmapBytes;
+        return this;
+    }
+
+    public long getMmapMinFileSize() {
+        return mmapMinFileSize;
+    }
+
+    public ServerSettings withMmapMinFileSize(long mmapMinFileSize) {
+        if (mmapMinFileSize < 1) {
+            throw new IllegalArgumentException("Illegal mapped file size " + mmapMinFileSize);
+        }
+        this.mmapMinFileSize = mmapMinFileSize;
+        return this;
+    }
+
+    public int getIndexPageSize() {
+        return indexPageSize;
+    }
+
+    public ServerSettings withIndexPageSize(int indexPageSize) {
+        if (indexPageSize < 1) {
+            throw new IllegalArgumentException("Illegal page size " + indexPageSize);
+        }
+        this.indexPageSize = indexPageSize;
+        return this;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public ServerSettings withCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public long getCompressionMaxFileSize() {
+        return compressionMaxFileSize;
+    }
+
+    public ServerSettings withCompressionMaxFileSize(long compressionMaxFileSize) {
+        if (compressionMaxFileSize < 0 || compressionMaxFileSize > Integer.MAX_VALUE - 8192) {
+            throw new IllegalArgumentException("Illegal compressed file size " + compressionMaxFileSize);
+        }
+        this.compressionMaxFileSize = compressionMaxFileSize;
+        return this;
+    }
+
+    public long getCompressionCacheBytes() {
+        return compressionCacheBytes;
+    }
+
+    public ServerSettings withCompressionCacheBytes(long compressionCacheBytes) {
+        if (compressionCacheBytes < 0) {
+            throw new IllegalArgumentException("Illegal compression cache size " + compressionCacheBytes);
+        }
+        this.compressionCacheBytes = compressionCacheBytes;
+        return this;
+    }
+
+    public String getMimeTypes() {
+        return mimeTypes;
+    }
+
+    /**
+     * @param mimeTypes a file in the {@code mime.types} format adding extension mappings, or null
+     */
+    public ServerSettings withMimeTypes(String mimeTypes) {
+        this.mimeTypes = mimeTypes;
+        return this;
+    }
+
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    /**
+     * @param metricsPath path serving the metrics in the Prometheus text format, empty to disable it
+     */
+    public ServerSettings withMetricsPath(String metricsPath) {
+        if (!metricsPath.isEmpty() && !metricsPath.startsWith("/")) {
+            throw new IllegalArgumentException("Illegal metrics path " + metricsPath);
+        }
+        this.metricsPath = metricsPath;
+        return this;
+    }
+
+    public String getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * @param accessLog file receiving the access log, or null to disable it
+     */
+    public ServerSettings withAccessLog(String accessLog) {
+        this.accessLog = accessLog;
+        return this;
+    }
+
+    public AccessLogFormat getAccessLogFormat() {
+        return accessLogFormat;
+    }
+
+    public ServerSettings withAccessLogFormat(AccessLogFormat accessLogFormat) {
+        this.accessLogFormat = accessLogFormat;
+        return this;
+    }
+
+    public AccessLogPolicy getAccessLogPolicy() {
+        return accessLogPolicy;
+    }
+
+    public ServerSettings withAccessLogPolicy(AccessLogPolicy accessLogPolicy) {
+        this.accessLogPolicy = accessLogPolicy;
+        return this;
+    }
+
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    public ServerSettings withAccessLogBufferSize(int accessLogBufferSize) {
+        if (accessLogBufferSize < 1 || accessLogBufferSize > 1 << 24) {
+            throw new IllegalArgumentException("Illegal access log buffer size " + accessLogBufferSize);
+        }
+        this.accessLogBufferSize = accessLogBufferSize;
+        return this;
+    }
+
+    public long getAccessLogMaxBytes() {
+        return accessLogMaxBytes;
+    }
+
+    /**
+     * @param accessLogMaxBytes size at which the access log is rotated, 0 for no limit
+     */
+    public ServerSettings withAccessLogMaxBytes(long accessLogMaxBytes) {
+        if (accessLogMaxBytes < 0) {
+            throw new IllegalArgumentException("Illegal access log size " + accessLogMaxBytes);
+        }
+        this.accessLogMaxBytes = accessLogMaxBytes;
+        return this;
+    }
+
+    public long getAccessLogRotateInterval() {
+        return accessLogRotateInterval;
+    }
+
+    /**
+     * @param accessLogRotateInterval milliseconds after which the access log is rotated, 0 for never
+     */
+    public ServerSettings withAccessLogRotateInterval(long accessLogRotateInterval) {
+        if (accessLogRotateInterval < 0) {
+            throw new IllegalArgumentException("Illegal access log rotation interval " + accessLogRotateInterval);
+        }
+        this.accessLogRotateInterval = accessLogRotateInterval;
+        return this;
+    }
+
+    public String getTlsKeyStore() {
+        return tlsKeyStore;
+    }
+
+    /**
+     * @param tlsKeyStore key store holding the server certificate and key, or null to serve plain HTTP
+     */
+    public ServerSettings withTlsKeyStore(String tlsKeyStore) {
+        this.tlsKeyStore = tlsKeyStore;
+        return this;
+    }
+
+    public String getTlsKeyStorePassword() {
+        return tlsKeyStorePassword;
+    }
+
+    public ServerSettings withTlsKeyStorePassword(String tlsKeyStorePassword) {
+        this.tlsKeyStorePassword = tlsKeyStorePassword;
+        return this;
+    }
+
+    public String getTlsKeyStoreType() {
+        return tlsKeyStoreType;
+    }
+
+    public ServerSettings withTlsKeyStoreType(String tlsKeyStoreType) {
+        this.tlsKeyStoreType = tlsKeyStoreType;
+        return this;
+    }
+
+    public String getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    /**
+     * @param tlsProtocols comma separated protocols, or null for the JDK defaults
+     */
+    public ServerSettings withTlsProtocols(String tlsProtocols) {
+        this.tlsProtocols = tlsProtocols;
+        return this;
+    }
+
+    public String getTlsCipherSuites() {
+        return tlsCipherSuites;
+    }
+
+    /**
+     * @param tlsCipherSuites comma separated cipher suites, or null for the JDK defaults
+     */
+    public ServerSettings withTlsCipherSuites(String tlsCipherSuites) {
+        this.tlsCipherSuites = tlsCipherSuites;
+        return this;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * @param tlsSessionCacheSize TLS sessions kept for resumption, 0 for no limit
+     */
+    public ServerSettings withTlsSessionCacheSize(int tlsSessionCacheSize) {
+        if (tlsSessionCacheSize < 0) {
+            throw new IllegalArgumentException("Illegal TLS session cache size " + tlsSessionCacheSize);
+        }
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        return this;
+    }
+
+    public int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * @param tlsSessionTimeout seconds a TLS session can be resumed, 0 for no limit
+     */
+    public ServerSettings withTlsSessionTimeout(int tlsSessionTimeout) {
+        if (tlsSessionTimeout < 0) {
+            throw new IllegalArgumentException("Illegal TLS session timeout " + tlsSessionTimeout);
+        }
+        this.tlsSessionTimeout = tlsSessionTimeout;
+        return this;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * @param http2 whether nio connections may switch to HTTP/2, by prior knowledge, h2c upgrade or ALPN
+     */
+    public ServerSettings withHttp2(boolean http2) {
+        this.http2 = http2;
+        return this;
+    }
+
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    public ServerSettings withHttp2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+        if (http2MaxConcurrentStreams <= 0) {
+            throw new IllegalArgumentException("Illegal HTTP/2 concurrent streams " + http2MaxConcurrentStreams);
+        }
+        this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+        return this;
+    }
+
+    public int getHttp2InitialWindowSize() {
+        return http2InitialWindowSize;
+    }
+
+    /**
+     * @param http2InitialWindowSize bytes of request body a client may send on a stream before it is told to
+     *                               send more
+     */
+    public ServerSettings withHttp2InitialWindowSize(int http2InitialWindowSize) {
+        if (http2InitialWindowSize < 65535) {
+            throw new IllegalArgumentException("Illegal HTTP/2 window size " + http2InitialWindowSize);
+        }
+        this.http2InitialWindowSize = http2InitialWindowSize;
+        return this;
+    }
+}
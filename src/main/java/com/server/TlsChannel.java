@@ -0,0 +1,251 @@
+package com.server;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking TLS over a socket channel through an {@link SSLEngine}. Reads and writes return 0 instead of
+ * blocking, like the socket underneath; the handshake is driven by reads. Encrypted bytes the socket did not
+ * accept stay buffered, so the owner has to wait for the socket to become writable while {@link #flush()}
+ * returns false.
+ */
+class TlsChannel implements ByteChannel, GatheringByteChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final BufferPool buffers;
+    // All three are kept in write mode: bytes waiting to be consumed are between 0 and the position
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private boolean inboundClosed;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine, BufferPool buffers) {
+        this.channel = channel;
+        this.engine = engine;
+        this.buffers = buffers;
+        this.netIn = buffers.lease(engine.getSession().getPacketBufferSize());
+        this.netOut = buffers.lease(engine.getSession().getPacketBufferSize());
+        this.appIn = buffers.lease(engine.getSession().getApplicationBufferSize());
+    }
+
+    /**
+     * Reads decrypted bytes, advancing the handshake on the way.
+     *
+     * @return the number of bytes read, possibly 0, or -1 once the peer has closed the connection
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (true) {
+            if (appIn.position() > 0) {
+                return transfer(dst);
+            }
+            if (inboundClosed || !flush()) {
+                return inboundClosed ? -1 : 0;
+            }
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    continue;
+                case NEED_WRAP:
+                    if (wrap(EMPTY).getStatus() == SSLEngineResult.Status.CLOSED) {
+                        inboundClosed = true;
+                    }
+                    continue;
+                default:
+                    break;
+            }
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    if (netIn.position() == netIn.capacity()) {
+                        netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                    }
+                    int read = channel.read(netIn);
+                    if (read == -1) {
+                        closeInbound();
+                        return -1;
+                    }
+                    if (read == 0) {
+                        return 0;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    break;
+                case CLOSED:
+                    inboundClosed = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Encrypts as many records as the socket accepts without blocking. A record is only produced once the
+     * previous one has been sent, so at most one record is buffered.
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written = 0;
+        while (flush() && hasRemaining(srcs, offset, length)) {
+            SSLEngineResult result = wrap(srcs, offset, length);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("TLS connection closed");
+            }
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                // The engine waits for the peer, as during a handshake, reads will move it forward
+                break;
+            }
+            written += result.bytesConsumed();
+        }
+        return written;
+    }
+
+    /**
+     * Sends the buffered encrypted bytes.
+     *
+     * @return true if nothing is left to send
+     */
+    boolean flush() throws IOException {
+        if (netOut.position() > 0) {
+            netOut.flip();
+            try {
+                channel.write(netOut);
+            } finally {
+                netOut.compact();
+            }
+        }
+        return netOut.position() == 0;
+    }
+
+    /**
+     * @return true if decrypted or received bytes are waiting, which the selector will not report again
+     */
+    boolean hasBufferedInput() {
+        return appIn.position() > 0 || netIn.position() > 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Sends close_notify if the socket takes it right away, closes the socket and hands the buffers back.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            engine.closeOutbound();
+            if (flush()) {
+                wrap(EMPTY);
+                flush();
+            }
+        } catch (IOException exception) {
+            MyServer.log.fine("Cannot send close_notify: " + exception);
+        } finally {
+            channel.close();
+            releaseBuffers();
+        }
+    }
+
+    private int transfer(ByteBuffer dst) {
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        ByteBuffer slice = appIn.duplicate();
+        slice.limit(slice.position() + count);
+        dst.put(slice);
+        appIn.position(appIn.position() + count);
+        appIn.compact();
+        return count;
+    }
+
+    private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        return wrap(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    private SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        while (true) {
+            SSLEngineResult result = engine.wrap(srcs, offset, length, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                continue;
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+            flush();
+            return result;
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private void closeInbound() {
+        inboundClosed = true;
+        try {
+            engine.closeInbound();
+        } catch (SSLException exception) {
+            MyServer.log.fine("Connection closed without close_notify: " + exception);
+        }
+    }
+
+    private void releaseBuffers() {
+        if (netIn != EMPTY) {
+            buffers.release(netIn);
+            buffers.release(netOut);
+            buffers.release(appIn);
+            netIn = EMPTY;
+            netOut = EMPTY;
+            appIn = EMPTY;
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] srcs, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (srcs[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ByteBuffer enlarge(ByteBuffer buffer, int minimum) {
+        ByteBuffer larger = buffers.lease(Math.max(buffer.capacity() * 2, minimum));
+        buffer.flip();
+        larger.put(buffer);
+        buffers.release(buffer);
+        return larger;
+    }
+}
@@ -0,0 +1,111 @@
+package com.server;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import static com.server.MyServer.log;
+
+/**
+ * The server certificate and TLS parameters shared by every connection. Sessions are cached in the shared
+ * {@link SSLContext}, so returning clients resume them with an abbreviated handshake; on Java 13+ the JDK also
+ * issues stateless session tickets. With HTTP/2 enabled, h2 is offered through ALPN, which the JDK supports
+ * since Java 9 and 8u252; it is looked up reflectively so the server still runs on older releases.
+ */
+final class TlsContext {
+
+    private static final String[] HTTP2_PROTOCOLS = {"h2", "http/1.1"};
+    private static final Method SET_APPLICATION_PROTOCOLS = findSetApplicationProtocols();
+
+    private final SSLContext context;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+    private final String[] applicationProtocols;
+
+    private TlsContext(SSLContext context, String[] protocols, String[] cipherSuites,
+                       String[] applicationProtocols) {
+        this.context = context;
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.applicationProtocols = applicationProtocols;
+    }
+
+    /**
+     * Loads the key store named by the settings, failing early on unknown protocols or cipher suites.
+     */
+    static TlsContext create(ServerSettings settings) throws IOException {
+        char[] password = settings.getTlsKeyStorePassword().toCharArray();
+        try (InputStream in = Files.newInputStream(Paths.get(settings.getTlsKeyStore()))) {
+            KeyStore keyStore = KeyStore.getInstance(settings.getTlsKeyStoreType());
+            keyStore.load(in, password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(settings.getTlsSessionCacheSize());
+            sessions.setSessionTimeout(settings.getTlsSessionTimeout());
+            if (settings.isHttp2() && SET_APPLICATION_PROTOCOLS == null) {
+                log.info("ALPN is not available on this JVM, HTTP/2 is only served over plain connections");
+            }
+            TlsContext tls = new TlsContext(context, split(settings.getTlsProtocols()),
+                    split(settings.getTlsCipherSuites()), settings.isHttp2() ? HTTP2_PROTOCOLS : null);
+            tls.createEngine();
+            return tls;
+        } catch (GeneralSecurityException exception) {
+            throw new IOException("Cannot load key store " + settings.getTlsKeyStore(), exception);
+        }
+    }
+
+    SSLEngine createEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        if (protocols != null) {
+            engine.setEnabledProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            engine.setEnabledCipherSuites(cipherSuites);
+        }
+        if (applicationProtocols != null && SET_APPLICATION_PROTOCOLS != null) {
+            SSLParameters parameters = engine.getSSLParameters();
+            try {
+                SET_APPLICATION_PROTOCOLS.invoke(parameters, (Object) applicationProtocols);
+            } catch (ReflectiveOperationException exception) {
+                throw new IllegalStateException(exception);
+            }
+            engine.setSSLParameters(parameters);
+        }
+        return engine;
+    }
+
+    private static Method findSetApplicationProtocols() {
+        try {
+            return SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+        } catch (NoSuchMethodException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the comma separated names, or null to keep the JDK defaults
+     */
+    private static String[] split(String names) {
+        if (names == null || names.trim().isEmpty()) {
+            return null;
+        }
+        String[] split = names.split(",");
+        for (int i = 0; i < split.length; i++) {
+            split[i] = split[i].trim();
+        }
+        return split;
+    }
+}
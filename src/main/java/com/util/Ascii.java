@@ -0,0 +1,50 @@
+package com.util;
+
+public class Ascii {
+
+    private Ascii() {
+    }
+
+    public static boolean equals(String string, byte[] bytes, int offset, int length) {
+        if (string.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) != (char) (bytes[offset + i] & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean equalsIgnoreCase(String string, byte[] bytes, int offset, int length) {
+        if (string.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(string.charAt(i)) != toLowerCase((char) (bytes[offset + i] & 0xff))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    public static long parseLong(byte[] bytes, int offset, int length, int radix) {
+        if (length == 0) {
+            throw new NumberFormatException("Empty number");
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = Character.digit(bytes[i], radix);
+            if (digit == -1 || value > (Long.MAX_VALUE - digit) / radix) {
+                throw new NumberFormatException("Illegal number at " + i);
+            }
+            value = value * radix + digit;
+        }
+        return value;
+    }
+}
@@ -1,10 +1,58 @@
 package com.util;
 
+import java.nio.charset.StandardCharsets;
+
 public class HttpHeaders {
 
     public static final String CONTENT_TYPE = "Content-Type";
     public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String CONNECTION = "Connection";
+    public static final String KEEP_ALIVE = "Keep-Alive";
+    public static final String HOST = "Host";
+    public static final String USER_AGENT = "User-Agent";
+    public static final String ACCEPT = "Accept";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String ACCEPT_LANGUAGE = "Accept-Language";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String EXPECT = "Expect";
+    public static final String ETAG = "ETag";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String IF_RANGE = "If-Range";
+    public static final String RANGE = "Range";
+    public static final String ACCEPT_RANGES = "Accept-Ranges";
+    public static final String CONTENT_RANGE = "Content-Range";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String VARY = "Vary";
+    public static final String RETRY_AFTER = "Retry-After";
+    public static final String REFERER = "Referer";
+    public static final String ORIGIN = "Origin";
+    public static final String UPGRADE_INSECURE_REQUESTS = "Upgrade-Insecure-Requests";
+    public static final String UPGRADE = "Upgrade";
+
+    public static final String CONNECTION_CLOSE = "close";
+    public static final String CONNECTION_KEEP_ALIVE = "keep-alive";
+
+    private static final String[] KNOWN_HEADERS = {
+            CONTENT_TYPE, CONTENT_LENGTH, TRANSFER_ENCODING, CONNECTION, KEEP_ALIVE, HOST, USER_AGENT, ACCEPT,
+            ACCEPT_ENCODING, ACCEPT_LANGUAGE, CACHE_CONTROL, EXPECT, IF_NONE_MATCH, IF_MODIFIED_SINCE, IF_RANGE, RANGE,
+            REFERER, ORIGIN, UPGRADE_INSECURE_REQUESTS
+    };
 
     private HttpHeaders() {
     }
+
+    /**
+     * Returns the constant for a known header name so parsing common headers does not allocate.
+     */
+    public static String getName(byte[] bytes, int offset, int length) {
+        for (String header : KNOWN_HEADERS) {
+            if (Ascii.equalsIgnoreCase(header, bytes, offset, length)) {
+                return header;
+            }
+        }
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
 }
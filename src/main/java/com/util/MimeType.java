@@ -1,5 +1,13 @@
 package com.util;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 public enum MimeType {
 
     $323("text/h323"),
@@ -141,6 +149,7 @@ public enum MimeType {
     gsf("application/x-font"),
     gsm("audio/x-gsm"),
     gtar("application/x-gtar"),
+    gz("application/gzip"),
     hdf("application/x-hdf"),
     hh("text/x-c++hdr"),
     hin("chemical/x-hin"),
@@ -179,6 +188,7 @@ public enum MimeType {
     jpe("image/jpeg"),
     jpg("image/jpeg"),
     js("application/x-javascript"),
+    json("application/json"),
     kar("audio/midi"),
     key("application/pgp-keys"),
     kil("application/x-killustrator"),
@@ -209,6 +219,7 @@ public enum MimeType {
     man("application/x-troff-man"),
     mcif("chemical/x-mmcif"),
     mcm("chemical/x-macmolecule"),
+    md("text/markdown"),
     mdb("application/msaccess"),
     me("application/x-troff-me"),
     mesh("model/mesh"),
@@ -428,10 +439,12 @@ public enum MimeType {
     vrm("x-world/x-vrml"),
     vsd("application/vnd.visio"),
     wad("application/x-doom"),
+    wasm("application/wasm"),
     wav("audio/x-wav"),
     wax("audio/x-ms-wax"),
     wbmp("image/vnd.wap.wbmp"),
     wbxml("application/vnd.wap.wbxml"),
+    webp("image/webp"),
     wk("application/x-123"),
     wma("audio/x-ms-wma"),
     wmd("application/x-ms-wmd"),
@@ -443,6 +456,8 @@ public enum MimeType {
     wmv("video/x-ms-wmv"),
     wmx("video/x-ms-wmx"),
     wmz("application/x-ms-wmz"),
+    woff("font/woff"),
+    woff2("font/woff2"),
     wp5("application/wordperfect5.1"),
     wpd("application/wordperfect"),
     $wrl("model/vrml"),
@@ -475,32 +490,151 @@ public enum MimeType {
     zmt("chemical/x-mopac-input"),
     undefined("application/octet-stream");
 
+    private static volatile Index index = new Index(defaultMappings());
+
     public String contentType;
+    private final boolean compressible;
 
     public String getContentType() {
         return this.contentType;
     }
 
+    /**
+     * @return true for textual types that shrink when compressed, false for media, archives and binaries
+     */
+    public boolean isCompressible() {
+        return compressible;
+    }
+
     MimeType(String contentType) {
 
         this.contentType = contentType;
+        this.compressible = !name().equals("svgz") && (contentType.startsWith("text/")
+                || contentType.endsWith("/xml") || contentType.endsWith("+xml")
+                || contentType.contains("javascript") || contentType.contains("json")
+                || contentType.equals("application/postscript") || contentType.equals("application/rtf")
+                || contentType.equals("application/x-latex") || contentType.equals("application/x-sh")
+                || contentType.equals("application/x-csh"));
     }
 
+    /**
+     * Looks the extension up case-insensitively without allocating. Constants prefixed with {@code $} are
+     * reachable without the prefix unless another constant already claims that extension.
+     *
+     * @return the type or {@link #undefined} if the extension is unknown
+     */
     public static MimeType getByExtension(String extension) {
+        return extension == null ? undefined : index.get(extension, 0, extension.length());
+    }
+
+    /**
+     * @return the type of the extension after the last dot of the file name, or {@link #undefined}
+     */
+    public static MimeType getByFileName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot == -1 || fileName.indexOf('/', dot) != -1) {
+            return undefined;
+        }
+        return index.get(fileName, dot + 1, fileName.length());
+    }
 
-        MimeType mimeType = undefined;
-        if (extension != null && extension.length() > 2) {
-            for (MimeType mt : MimeType.values()) {
+    /**
+     * Adds the mappings of a file in the {@code mime.types} format, one type followed by its extensions per line.
+     * Extensions are mapped to the constant with the same content type, types without one are skipped.
+     *
+     * @return the number of extensions mapped
+     */
+    public static synchronized int load(Path file) throws IOException {
+        Map<String, MimeType> byContentType = new HashMap<>();
+        for (MimeType mimeType : values()) {
+            byContentType.putIfAbsent(mimeType.contentType.toLowerCase(Locale.ROOT), mimeType);
+        }
+        Map<String, MimeType> mappings = index.toMap();
+        int mapped = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int comment = line.indexOf('#');
+            String[] fields = (comment == -1 ? line : line.substring(0, comment)).trim().split("\\s+");
+            MimeType mimeType = byContentType.get(fields[0].toLowerCase(Locale.ROOT));
+            if (mimeType == null) {
+                continue;
+            }
+            for (int i = 1; i < fields.length; i++) {
+                mappings.put(fields[i].toLowerCase(Locale.ROOT), mimeType);
+                mapped++;
+            }
+        }
+        index = new Index(mappings);
+        return mapped;
+    }
 
-                if (mt.name().equalsIgnoreCase(extension)) {
-                    mimeType = mt;
-                    break;
+    private static Map<String, MimeType> defaultMappings() {
+        Map<String, MimeType> mappings = new HashMap<>();
+        for (MimeType mimeType : values()) {
+            if (mimeType != undefined && !mimeType.name().startsWith("$")) {
+                mappings.put(mimeType.name(), mimeType);
+            }
+        }
+        for (MimeType mimeType : values()) {
+            if (mimeType.name().startsWith("$")) {
+                mappings.putIfAbsent(mimeType.name().substring(1), mimeType);
+            }
+        }
+        return mappings;
+    }
+
+    /**
+     * Open addressing table of lower case extensions, hashed and compared ignoring ASCII case.
+     */
+    private static class Index {
+
+        private final String[] keys;
+        private final MimeType[] values;
+        private final int mask;
+
+        Index(Map<String, MimeType> mappings) {
+            int capacity = Integer.highestOneBit(Math.max(mappings.size(), 1) * 4 - 1) << 1;
+            this.keys = new String[capacity];
+            this.values = new MimeType[capacity];
+            this.mask = capacity - 1;
+            for (Map.Entry<String, MimeType> mapping : mappings.entrySet()) {
+                String key = mapping.getKey();
+                int slot = hash(key, 0, key.length()) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
                 }
+                keys[slot] = key;
+                values[slot] = mapping.getValue();
             }
         }
 
-        return mimeType;
+        MimeType get(String text, int start, int end) {
+            int slot = hash(text, start, end) & mask;
+            for (String key = keys[slot]; key != null; key = keys[slot]) {
+                if (key.length() == end - start && key.regionMatches(true, 0, text, start, end - start)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return undefined;
+        }
 
-    }
+        Map<String, MimeType> toMap() {
+            Map<String, MimeType> mappings = new HashMap<>();
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    mappings.put(keys[i], values[i]);
+                }
+            }
+            return mappings;
+        }
 
-}
\ No newline at end of file
+        private static int hash(String text, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                hash = 31 * hash + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteRangeTest {
+
+    @Test
+    void parsesClosedOpenAndSuffixRanges() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-9, 90-, -5", 100);
+
+        assertEquals(3, ranges.size());
+        assertEquals("bytes 0-9/100", ranges.get(0).toContentRange(100));
+        assertEquals("bytes 90-99/100", ranges.get(1).toContentRange(100));
+        assertEquals("bytes 95-99/100", ranges.get(2).toContentRange(100));
+        assertEquals(10, ranges.get(0).getLength());
+        assertEquals(90, ranges.get(1).getStart());
+    }
+
+    @Test
+    void clampsRangesToLength() {
+        List<ByteRange> ranges = ByteRange.parse("BYTES=50-1000,-500", 100);
+
+        assertEquals("bytes 50-99/100", ranges.get(0).toContentRange(100));
+        assertEquals("bytes 0-99/100", ranges.get(1).toContentRange(100));
+    }
+
+    @Test
+    void dropsUnsatisfiableRanges() {
+        assertTrue(ByteRange.parse("bytes=100-200", 100).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 100).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+        assertEquals(1, ByteRange.parse("bytes=100-200,0-0", 100).size());
+    }
+
+    @Test
+    void ignoresInvalidHeaders() {
+        assertNull(ByteRange.parse(null, 100));
+        assertNull(ByteRange.parse("items=0-1", 100));
+        assertNull(ByteRange.parse("bytes=5", 100));
+        assertNull(ByteRange.parse("bytes=9-5", 100));
+        assertNull(ByteRange.parse("bytes=a-b", 100));
+        assertNull(ByteRange.parse("bytes=0-0,1-1,2-2,3-3,4-4,5-5,6-6,7-7,8-8,9-9,10-10,11-11,12-12,13-13,"
+                + "14-14,15-15,16-16", 100));
+    }
+}
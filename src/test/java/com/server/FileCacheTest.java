@@ -0,0 +1,113 @@
+package com.server;
+
+import com.util.MimeType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileCacheTest {
+
+    private static final int FILE_SIZE = 1000;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void servesRepeatedRequestsFromMemory() throws IOException {
+        FileCache cache = new FileCache(1 << 20, 1 << 16);
+        Path file = createFile("index.txt", FILE_SIZE);
+
+        assertNotNull(cache.get(request(), file, MimeType.text));
+        assertNotNull(cache.get(request(), file, MimeType.text));
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getEntryCount());
+        assertTrue(cache.getSize() > FILE_SIZE);
+    }
+
+    @Test
+    void skipsMissingAndLargeFiles() throws IOException {
+        FileCache cache = new FileCache(1 << 20, FILE_SIZE);
+
+        assertNull(cache.get(request(), folder.resolve("missing.txt"), MimeType.text));
+        assertNull(cache.get(request(), createFile("large.txt", FILE_SIZE + 1), MimeType.text));
+        assertNull(cache.get(request(), folder, MimeType.text));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    void keepsEncodedVariantsApart() throws IOException {
+        FileCache cache = new FileCache(1 << 20, 1 << 16);
+        Path file = createFile("page.txt", FILE_SIZE);
+
+        assertNotNull(cache.get(request(), file, MimeType.text));
+        assertNotNull(cache.get(request(), file, MimeType.text, ContentEncoding.GZIP));
+        assertNotNull(cache.get(request(), file, MimeType.text, ContentEncoding.GZIP));
+
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void keepsHotFileThroughScanOfColdFiles() throws IOException {
+        // Room for two files
+        FileCache cache = new FileCache(3 * FILE_SIZE, 1 << 16);
+        Path hot = createFile("hot.txt", FILE_SIZE);
+        for (int i = 0; i < 5; i++) {
+            cache.get(request(), hot, MimeType.text);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            cache.get(request(), createFile("cold-" + i + ".txt", FILE_SIZE), MimeType.text);
+        }
+        long hits = cache.getHits();
+        assertNotNull(cache.get(request(), hot, MimeType.text));
+
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(0, cache.getEvictions());
+        assertTrue(cache.getSize() <= 3 * FILE_SIZE);
+    }
+
+    @Test
+    void reloadsChangedFile() throws IOException, InterruptedException {
+        FileCache cache = new FileCache(1 << 20, 1 << 16);
+        Path file = createFile("changing.txt", FILE_SIZE);
+        cache.get(request(), file, MimeType.text);
+        long size = cache.getSize();
+
+        Files.write(file, new byte[2 * FILE_SIZE]);
+        // Entries are revalidated at most once per second
+        Thread.sleep(1100);
+
+        assertNotNull(cache.get(request(), file, MimeType.text));
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(size + FILE_SIZE, cache.getSize());
+
+        Files.delete(file);
+        Thread.sleep(1100);
+        assertNull(cache.get(request(), file, MimeType.text));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    private Path createFile(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        return Files.write(folder.resolve(name), content);
+    }
+
+    private static HttpRequest request() {
+        return new HttpRequest(HttpRequest.GET, "/file", HttpRequest.HTTP_1_1);
+    }
+}
@@ -0,0 +1,85 @@
+package com.server;
+
+import com.util.HttpHeaders;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileValidatorTest {
+
+    // Thu, 01 Jan 2026 00:00:00 GMT, with milliseconds the HTTP date drops
+    private static final long MODIFIED = 1767225600_123L;
+    private static final String MODIFIED_DATE = "Thu, 01 Jan 2026 00:00:00 GMT";
+
+    private final FileValidator validator = new FileValidator(4096, MODIFIED, null);
+
+    @Test
+    void matchesEntityTags() {
+        String etag = header(validator.notModified(), HttpHeaders.ETAG);
+
+        assertTrue(validator.isNotModified(request(HttpHeaders.IF_NONE_MATCH, etag)));
+        assertTrue(validator.isNotModified(request(HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + etag)));
+        assertTrue(validator.isNotModified(request(HttpHeaders.IF_NONE_MATCH, "*")));
+        assertFalse(validator.isNotModified(request(HttpHeaders.IF_NONE_MATCH, "\"other\"")));
+    }
+
+    @Test
+    void comparesModificationDates() {
+        assertTrue(validator.isNotModified(request(HttpHeaders.IF_MODIFIED_SINCE, MODIFIED_DATE)));
+        assertTrue(validator.isNotModified(request(HttpHeaders.IF_MODIFIED_SINCE, "Fri, 02 Jan 2026 00:00:00 GMT")));
+        assertFalse(validator.isNotModified(request(HttpHeaders.IF_MODIFIED_SINCE, "Wed, 31 Dec 2025 23:59:59 GMT")));
+        assertFalse(validator.isNotModified(request(HttpHeaders.IF_MODIFIED_SINCE, "yesterday")));
+        assertFalse(validator.isNotModified(request(null, null)));
+    }
+
+    @Test
+    void prefersEntityTagsOverDates() {
+        HttpRequest request = request(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, MODIFIED_DATE);
+
+        assertFalse(validator.isNotModified(request));
+    }
+
+    @Test
+    void allowsRangesOnlyForUnchangedFile() {
+        String etag = header(validator.notModified(), HttpHeaders.ETAG);
+
+        assertTrue(validator.isRangeAllowed(request(null, null)));
+        assertTrue(validator.isRangeAllowed(request(HttpHeaders.IF_RANGE, etag)));
+        assertTrue(validator.isRangeAllowed(request(HttpHeaders.IF_RANGE, MODIFIED_DATE)));
+        assertFalse(validator.isRangeAllowed(request(HttpHeaders.IF_RANGE, "\"other\"")));
+        assertFalse(validator.isRangeAllowed(request(HttpHeaders.IF_RANGE, "Fri, 02 Jan 2026 00:00:00 GMT")));
+    }
+
+    @Test
+    void givesEncodedRepresentationItsOwnTag() {
+        FileValidator gzip = new FileValidator(4096, MODIFIED, ContentEncoding.GZIP);
+
+        assertNotEquals(header(validator.notModified(), HttpHeaders.ETAG),
+                header(gzip.notModified(), HttpHeaders.ETAG));
+        assertEquals(MODIFIED_DATE, header(gzip.notModified(), HttpHeaders.LAST_MODIFIED));
+    }
+
+    private static String header(HttpResponse response, String name) {
+        String headers = new String(response.getEntityHeaderBytes(), StandardCharsets.ISO_8859_1);
+        for (String line : headers.split("\r\n")) {
+            if (line.startsWith(name + ": ")) {
+                return line.substring(name.length() + 2);
+            }
+        }
+        return null;
+    }
+
+    private static HttpRequest request(String header, String value) {
+        HttpRequest request = new HttpRequest(HttpRequest.GET, "/file", HttpRequest.HTTP_1_1);
+        if (header != null) {
+            request.addHeader(header, value);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,78 @@
+package com.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HpackTest {
+
+    @Test
+    void decodesRequestFromSpecification() throws Http2Exception {
+        // RFC 7541 C.4.1, a request with Huffman coded literals
+        List<String> fields = decode(new Hpack.Decoder(), "828684418cf1e3c2e5f23a6ba0ab90f4ff");
+
+        assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com"), fields);
+    }
+
+    @Test
+    void roundTripsThroughDynamicTable() throws Http2Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        List<String> expected = Arrays.asList(":status", "200", "content-type", "text/html",
+                "x-custom", "some value", "date", "Thu, 01 Jan 2026 00:00:00 GMT");
+
+        int firstLength = 0;
+        for (int i = 0; i < 2; i++) {
+            encoder.begin();
+            for (int j = 0; j < expected.size(); j += 2) {
+                encoder.encode(expected.get(j), expected.get(j + 1), true);
+            }
+            ByteBuffer block = encoder.getBlock();
+            if (i == 0) {
+                firstLength = block.remaining();
+            } else {
+                assertTrue(block.remaining() < firstLength, "repeated fields come from the dynamic table");
+            }
+            List<String> fields = new ArrayList<>();
+            decoder.decode(block, fields);
+            assertEquals(expected, fields);
+        }
+    }
+
+    @Test
+    void announcesTableSizeChange() throws Http2Exception {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        encoder.setMaxTableSize(0);
+
+        encoder.begin();
+        encoder.encode("x-custom", "value", true);
+        List<String> fields = new ArrayList<>();
+        decoder.decode(encoder.getBlock(), fields);
+
+        assertEquals(Arrays.asList("x-custom", "value"), fields);
+    }
+
+    @Test
+    void rejectsUnknownIndex() {
+        assertThrows(Http2Exception.class, () -> decode(new Hpack.Decoder(), "ff00"));
+    }
+
+    private static List<String> decode(Hpack.Decoder decoder, String hex) throws Http2Exception {
+        byte[] block = new byte[hex.length() / 2];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        List<String> fields = new ArrayList<>();
+        decoder.decode(ByteBuffer.wrap(block), fields);
+        return fields;
+    }
+}
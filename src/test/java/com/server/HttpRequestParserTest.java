@@ -0,0 +1,211 @@
+package com.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpRequestParserTest {
+
+    @Test
+    void parsesRequestFedByteByByte() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(request -> null);
+        ByteBuffer buffer = ascii("GET /index.html?q=1 HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nhello");
+        int limit = buffer.limit();
+
+        boolean complete = false;
+        for (int end = 1; end <= limit && !complete; end++) {
+            buffer.limit(end);
+            complete = parser.parse(buffer);
+            assertEquals(complete, end == limit);
+        }
+
+        HttpRequest request = parser.getRequest();
+        assertEquals(HttpRequest.GET, request.getMethod());
+        assertEquals("/index.html", request.getPath());
+        assertEquals("1", request.getQueryParameter("q"));
+        assertEquals("localhost", request.getHeader("Host"));
+        assertArrayEquals("hello".getBytes(StandardCharsets.US_ASCII), request.getBody());
+    }
+
+    @Test
+    void leavesPipelinedRequestInBuffer() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(request -> null);
+        ByteBuffer buffer = ascii("GET /first HTTP/1.1\r\n\r\nGET /second HTTP/1.1\r\n\r\n");
+
+        assertTrue(parser.parse(buffer));
+        assertEquals("/first", parser.getRequest().getPath());
+        assertTrue(buffer.hasRemaining());
+
+        parser.reset();
+        assertTrue(parser.parse(buffer));
+        assertEquals("/second", parser.getRequest().getPath());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void decodesChunkedBody() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(request -> null);
+        ByteBuffer buffer = ascii("POST /upload HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5\r\nhello\r\n7;ext=1\r\n, world\r\n0\r\nTrailer: x\r\n\r\n");
+
+        assertTrue(parser.parse(buffer));
+        assertArrayEquals("hello, world".getBytes(StandardCharsets.US_ASCII), parser.getRequest().getBody());
+    }
+
+    @Test
+    void streamsBodyIntoSink() throws IOException {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        boolean[] completed = new boolean[1];
+        HttpRequestParser parser = new HttpRequestParser(request -> new BodySink() {
+            @Override
+            public void write(ByteBuffer buffer) {
+                while (buffer.hasRemaining()) {
+                    received.write(buffer.get());
+                }
+            }
+
+            @Override
+            public void complete() {
+                completed[0] = true;
+            }
+
+            @Override
+            public void abort() {
+            }
+        });
+
+        assertFalse(parser.parse(ascii("PUT /file HTTP/1.1\r\nContent-Length: 10\r\n\r\n01234")));
+        assertTrue(parser.parse(ascii("56789")));
+
+        assertTrue(completed[0]);
+        assertEquals(0, parser.getRequest().getBody().length);
+        assertEquals("0123456789", new String(received.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void stopsWhileSinkIsWaiting() throws IOException {
+        boolean[] waiting = {true};
+        Runnable[] listener = new Runnable[1];
+        HttpRequestParser parser = new HttpRequestParser(request -> new BodySink() {
+            @Override
+            public void write(ByteBuffer buffer) {
+                buffer.position(buffer.limit());
+            }
+
+            @Override
+            public boolean isWaiting() {
+                return waiting[0];
+            }
+
+            @Override
+            public void whenReady(Runnable ready) {
+                listener[0] = ready;
+            }
+
+            @Override
+            public void complete() {
+            }
+
+            @Override
+            public void abort() {
+            }
+        });
+        ByteBuffer buffer = ascii("PUT /file HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc");
+
+        assertFalse(parser.parse(buffer));
+        assertTrue(parser.isWaitingForBody());
+        assertEquals(3, buffer.remaining());
+
+        boolean[] ready = new boolean[1];
+        parser.whenBodyReady(() -> ready[0] = true);
+        waiting[0] = false;
+        listener[0].run();
+
+        assertTrue(ready[0]);
+        assertTrue(parser.parse(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void rejectsMalformedRequests() {
+        assertThrows(HttpParseException.class,
+                () -> new HttpRequestParser(request -> null).parse(ascii("GET\r\n\r\n")));
+        assertThrows(HttpParseException.class, () -> new HttpRequestParser(request -> null)
+                .parse(ascii("POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n")));
+        assertThrows(HttpParseException.class, () -> new HttpRequestParser(request -> null)
+                .parse(ascii("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n")));
+    }
+
+    @Test
+    void rejectsBodyFramingOtherThanChunked() {
+        assertEquals(400, parseError("POST / HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n"));
+        assertEquals(400, parseError("POST / HTTP/1.1\r\nTransfer-Encoding: xchunked\r\n\r\n"));
+        assertEquals(400, parseError("POST / HTTP/1.1\r\nTransfer-Encoding: chunked, chunked\r\n\r\n"));
+        assertEquals(400, parseError("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n"
+                + "Transfer-Encoding: identity\r\n\r\n"));
+        assertEquals(501, parseError("POST / HTTP/1.1\r\nTransfer-Encoding: gzip, chunked\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsAmbiguousContentLength() {
+        assertEquals(400, parseError("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\n"));
+        assertEquals(400, parseError("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 5\r\n\r\n"));
+        assertEquals(400, parseError("POST / HTTP/1.1\r\nContent-Length: 5, 5\r\n\r\n"));
+        assertEquals(400, parseError("POST / HTTP/1.1\r\nContent-Length: +5\r\n\r\n"));
+    }
+
+    @Test
+    void acceptsChunkedCaseInsensitively() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(request -> null);
+
+        assertTrue(parser.parse(ascii("POST / HTTP/1.1\r\nTransfer-Encoding: Chunked\r\n\r\n0\r\n\r\n")));
+        assertTrue(parser.getRequest().isKeepAlive());
+    }
+
+    @Test
+    void closesConnectionWhenBothFramingsAreSent() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(request -> null);
+        ByteBuffer buffer = ascii("POST / HTTP/1.1\r\nContent-Length: 3\r\nTransfer-Encoding: chunked\r\n"
+                + "Connection: keep-alive\r\n\r\n3\r\nabc\r\n0\r\n\r\n");
+
+        assertTrue(parser.parse(buffer));
+        assertArrayEquals("abc".getBytes(StandardCharsets.US_ASCII), parser.getRequest().getBody());
+        assertFalse(parser.getRequest().isKeepAlive());
+    }
+
+    @Test
+    void reportsExpectedContinueOnce() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(request -> null);
+
+        assertFalse(parser.parse(ascii("PUT /file HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 3\r\n\r\n")));
+        assertTrue(parser.takeContinueExpected());
+        assertFalse(parser.takeContinueExpected());
+        assertTrue(parser.parse(ascii("abc")));
+
+        parser.reset();
+        assertTrue(parser.parse(ascii("GET / HTTP/1.1\r\nExpect: 100-continue\r\n\r\n")));
+        assertFalse(parser.takeContinueExpected());
+
+        parser.reset();
+        assertFalse(parser.parse(ascii("PUT /file HTTP/1.0\r\nExpect: 100-continue\r\nContent-Length: 3\r\n\r\n")));
+        assertFalse(parser.takeContinueExpected());
+    }
+
+    private static int parseError(String request) {
+        return assertThrows(HttpParseException.class,
+                () -> new HttpRequestParser(ignored -> null).parse(ascii(request))).getStatus();
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,157 @@
+package com.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartDecoderTest {
+
+    private static final String BOUNDARY = "xYz--boundary";
+    // Partial delimiters the matcher has to give back, including ones overlapping a longer match
+    private static final String NEAR_MISSES = "\r\n-\r\n--xYz-\r\n--xYz--boundar\r\n\r\n--xYz--bo\r\n--xYz--boundarY";
+
+    @TempDir
+    Path folder;
+    private final BufferPool buffers = new BufferPool(1 << 20, true);
+    private FileIo fileIo;
+
+    @AfterEach
+    void tearDown() {
+        if (fileIo != null) {
+            fileIo.close();
+        }
+        assertEquals(0, buffers.reportLeaks());
+    }
+
+    @Test
+    void savesFilesWhateverTheBufferBorders() throws IOException, InterruptedException {
+        byte[] content = concat(NEAR_MISSES.getBytes(StandardCharsets.ISO_8859_1), randomBytes(200000),
+                NEAR_MISSES.getBytes(StandardCharsets.ISO_8859_1));
+        byte[] body = body(part("field", null, "value".getBytes(StandardCharsets.ISO_8859_1)),
+                part("file", "upload.bin", content), part("second", "../second.txt", new byte[0]));
+
+        for (int chunk : new int[]{1, 7, 4096, body.length}) {
+            decode(new MultipartDecoder(BOUNDARY, folder, null, buffers), body, chunk);
+
+            assertArrayEquals(content, Files.readAllBytes(folder.resolve("upload.bin")), "chunks of " + chunk);
+            assertEquals(0, Files.size(folder.resolve("second.txt")));
+            assertEquals(2, countFiles());
+        }
+    }
+
+    @Test
+    void savesFilesThroughFileIo() throws IOException, InterruptedException {
+        fileIo = new FileIo(2, buffers);
+        byte[] content = concat(randomBytes(1000000), NEAR_MISSES.getBytes(StandardCharsets.ISO_8859_1));
+        byte[] body = body(part("file", "upload.bin", content), part("file", "small.txt",
+                "small".getBytes(StandardCharsets.ISO_8859_1)));
+
+        for (int chunk : new int[]{4096, body.length}) {
+            decode(new MultipartDecoder(BOUNDARY, folder, fileIo, buffers), body, chunk);
+
+            assertArrayEquals(content, Files.readAllBytes(folder.resolve("upload.bin")), "chunks of " + chunk);
+            assertEquals("small", new String(Files.readAllBytes(folder.resolve("small.txt")),
+                    StandardCharsets.ISO_8859_1));
+            assertEquals(2, countFiles());
+        }
+    }
+
+    @Test
+    void deletesTruncatedUpload() throws IOException {
+        byte[] body = body(part("file", "upload.bin", randomBytes(10000)));
+        MultipartDecoder decoder = new MultipartDecoder(BOUNDARY, folder, null, buffers);
+
+        decoder.write(ByteBuffer.wrap(body, 0, body.length / 2));
+
+        assertThrows(HttpParseException.class, decoder::complete);
+        assertEquals(0, countFiles());
+    }
+
+    @Test
+    void findsBoundaryInContentType() {
+        HttpRequest request = new HttpRequest(HttpRequest.POST, "/", HttpRequest.HTTP_1_1);
+        request.addHeader("Content-Type", "Multipart/Form-Data; boundary=\"" + BOUNDARY + "\"");
+
+        assertTrue(MultipartDecoder.create(request, folder, null, buffers) != null);
+
+        HttpRequest plain = new HttpRequest(HttpRequest.POST, "/", HttpRequest.HTTP_1_1);
+        plain.addHeader("Content-Type", "text/plain");
+        assertNull(MultipartDecoder.create(plain, folder, null, buffers));
+    }
+
+    /**
+     * Feeds the body in chunks, waiting whenever the decoder waits for its writes like the connections do.
+     */
+    private static void decode(MultipartDecoder decoder, byte[] body, int chunk)
+            throws IOException, InterruptedException {
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            ByteBuffer buffer = ByteBuffer.wrap(body, offset, Math.min(chunk, body.length - offset));
+            while (buffer.hasRemaining()) {
+                decoder.write(buffer);
+                if (decoder.isWaiting()) {
+                    CountDownLatch ready = new CountDownLatch(1);
+                    decoder.whenReady(ready::countDown);
+                    assertTrue(ready.await(10, TimeUnit.SECONDS), "decoder resumed");
+                }
+            }
+        }
+        assertFalse(decoder.isWaiting());
+        decoder.complete();
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] part(String name, String filename, byte[] content) {
+        String headers = "Content-Disposition: form-data; name=\"" + name + "\""
+                + (filename == null ? "" : "; filename=\"" + filename + "\"") + "\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n";
+        return concat(("--" + BOUNDARY + "\r\n" + headers).getBytes(StandardCharsets.ISO_8859_1), content,
+                "\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte[] body(byte[]... parts) {
+        byte[] preamble = "ignored preamble\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] end = ("--" + BOUNDARY + "--\r\nignored epilogue").getBytes(StandardCharsets.ISO_8859_1);
+        byte[][] all = new byte[parts.length + 2][];
+        all[0] = preamble;
+        System.arraycopy(parts, 0, all, 1, parts.length);
+        all[all.length - 1] = end;
+        return concat(all);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.write(array, 0, array.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,54 @@
+package com.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RouterTest {
+
+    private final Handler fallback = request -> HttpResponse.create(404);
+    private final Handler home = request -> HttpResponse.create(200);
+    private final Handler files = request -> HttpResponse.create(200);
+    private final Handler metrics = request -> HttpResponse.create(200);
+    private final Handler upload = request -> HttpResponse.create(200);
+
+    private final Router router = new Router(fallback)
+            .add(HttpRequest.GET, "/", home)
+            .add(HttpRequest.GET, "/metrics", metrics)
+            .addPrefix(HttpRequest.GET, "/", files)
+            .addPrefix(HttpRequest.POST, "/", upload);
+
+    @Test
+    void prefersExactRoute() {
+        assertSame(home, router.match(HttpRequest.GET, "/").getHandler());
+        assertSame(metrics, router.match(HttpRequest.GET, "/metrics").getHandler());
+    }
+
+    @Test
+    void fallsBackToLongestPrefix() {
+        assertSame(files, router.match(HttpRequest.GET, "/metricsx").getHandler());
+        assertSame(files, router.match(HttpRequest.GET, "/met").getHandler());
+        assertSame(files, router.match(HttpRequest.GET, "/folder/file.txt").getHandler());
+        assertSame(upload, router.match(HttpRequest.POST, "/metrics").getHandler());
+    }
+
+    @Test
+    void ignoresQueryString() {
+        assertSame(home, router.match(HttpRequest.GET, "/?sort=size").getHandler());
+        assertSame(metrics, router.match(HttpRequest.GET, "/metrics?x=1").getHandler());
+    }
+
+    @Test
+    void routesUnknownMethodsAndPathsToFallback() {
+        assertSame(fallback, router.match(HttpRequest.DELETE, "/").getHandler());
+        assertSame(fallback, new Router(fallback).add(HttpRequest.GET, "/a", home)
+                .match(HttpRequest.GET, "/b").getHandler());
+    }
+
+    @Test
+    void rejectsDuplicateRoutes() {
+        assertThrows(IllegalArgumentException.class, () -> router.add(HttpRequest.GET, "/", home));
+        assertThrows(IllegalArgumentException.class, () -> router.addPrefix(HttpRequest.POST, "/", home));
+    }
+}
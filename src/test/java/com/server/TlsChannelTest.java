@@ -0,0 +1,212 @@
+package com.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class TlsChannelTest {
+
+    private static final String PASSWORD = UUID.randomUUID().toString();
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @TempDir
+    static Path folder;
+    private static Path keyStore;
+
+    private final BufferPool buffers = new BufferPool(1 << 20, true);
+    private final ExecutorService client = Executors.newSingleThreadExecutor();
+    private ServerSocketChannel server;
+    private TlsContext tls;
+
+    /**
+     * Generates a self-signed certificate for localhost with the JDK's keytool, so no key material is checked in.
+     */
+    @BeforeAll
+    static void createKeyStore() throws IOException, InterruptedException {
+        keyStore = folder.resolve("server.p12");
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "EC",
+                "-dname", "CN=localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(), "-storepass", PASSWORD,
+                "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .redirectOutput(folder.resolve("keytool.log").toFile())
+                .start();
+        assertEquals(0, process.waitFor(), "keytool exit code");
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ServerSettings settings = new ServerSettings()
+                .withTlsKeyStore(keyStore.toString())
+                .withTlsKeyStorePassword(PASSWORD);
+        tls = TlsContext.create(settings);
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.shutdownNow();
+        server.close();
+    }
+
+    @Test
+    void exchangesDataAndCloses() throws Exception {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        Future<?> closed = client.submit(() -> {
+            // Closing waits for the close_notify of the server, so the reply is handed over first
+            try (SSLSocket socket = connect()) {
+                OutputStream out = socket.getOutputStream();
+                out.write("ping".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                reply.complete(new String(readFully(socket.getInputStream(), 4), StandardCharsets.US_ASCII));
+            }
+            return null;
+        });
+        TlsChannel channel = accept();
+
+        ByteBuffer request = ByteBuffer.allocate(4);
+        while (request.hasRemaining()) {
+            assertTrue(read(channel, request) >= 0, "peer closed before sending");
+        }
+        assertEquals("ping", new String(request.array(), StandardCharsets.US_ASCII));
+
+        ByteBuffer response = ByteBuffer.wrap("pong".getBytes(StandardCharsets.US_ASCII));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (response.hasRemaining() || !channel.flush()) {
+            channel.write(response);
+            checkDeadline(deadline);
+        }
+        assertEquals("pong", reply.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        assertEquals(-1, read(channel, ByteBuffer.allocate(16)));
+        channel.close();
+        closed.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals(0, buffers.reportLeaks());
+    }
+
+    @Test
+    void writesMoreThanOneRecord() throws Exception {
+        byte[] payload = new byte[100000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        CompletableFuture<byte[]> received = new CompletableFuture<>();
+        Future<?> closed = client.submit(() -> {
+            try (SSLSocket socket = connect()) {
+                socket.getOutputStream().write(1);
+                socket.getOutputStream().flush();
+                received.complete(readFully(socket.getInputStream(), payload.length));
+            }
+            return null;
+        });
+        TlsChannel channel = accept();
+        ByteBuffer start = ByteBuffer.allocate(1);
+        while (start.hasRemaining()) {
+            assertTrue(read(channel, start) >= 0, "peer closed before sending");
+        }
+
+        ByteBuffer[] sources = {ByteBuffer.wrap(payload, 0, 60000), ByteBuffer.wrap(payload, 60000, 40000)};
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (sources[1].hasRemaining() || !channel.flush()) {
+            channel.write(sources);
+            checkDeadline(deadline);
+        }
+
+        byte[] bytes = received.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        channel.close();
+        closed.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < payload.length; i++) {
+            assertEquals(payload[i], bytes[i], "byte " + i);
+        }
+        assertEquals(0, buffers.reportLeaks());
+    }
+
+    private TlsChannel accept() throws IOException {
+        SocketChannel socket = server.accept();
+        socket.configureBlocking(false);
+        return new TlsChannel(socket, tls.createEngine(), buffers);
+    }
+
+    /**
+     * Polls the non-blocking channel until it returns bytes or the end of the stream.
+     */
+    private static int read(TlsChannel channel, ByteBuffer dst) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            int count = channel.read(dst);
+            if (count != 0) {
+                return count;
+            }
+            checkDeadline(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void checkDeadline(long deadline) {
+        if (System.currentTimeMillis() > deadline) {
+            fail("Timed out");
+        }
+    }
+
+    private SSLSocket connect() throws Exception {
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            trusted.load(in, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(address.getAddress(),
+                address.getPort());
+        socket.setSoTimeout((int) TIMEOUT_MILLIS);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(bytes, offset, length - offset);
+            if (count == -1) {
+                throw new IOException("End of stream after " + offset + " bytes");
+            }
+            offset += count;
+        }
+        return bytes;
+    }
+}